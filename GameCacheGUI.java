@@ -1,22 +1,49 @@
 import javax.swing.*;
 import javax.swing.border.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.AbstractTableModel;
+import javax.management.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.List;
-import java.util.zip.CRC32;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.*;
 
 public class GameCacheGUI extends JFrame {
     // Cache components
-    private GameCache gameCache;
+    private volatile GameCache gameCache;
     private final String cacheBasePath = "game_cache";
+    private final long startupNanos = System.nanoTime();
     
     // GUI components
     private JTabbedPane tabbedPane;
@@ -24,14 +51,29 @@ public class GameCacheGUI extends JFrame {
     private JPanel importPanel;
     private JPanel managePanel;
     private JTextArea logArea;
+    private UiUpdateChannel uiUpdates;
     private JTable fileTable;
-    private DefaultTableModel tableModel;
+    private PendingFileModel pendingModel;
     private JComboBox<Integer> archiveComboBox;
     private JLabel statusLabel;
+    private JProgressBar loadProgress;
+    private final List<Component> cacheActions = new ArrayList<>();
+    private JTextArea metricsArea;
+    private javax.swing.Timer metricsTimer;
+    private CacheBrowserModel browserModel;
+    private CacheBrowserModel.Columns browserColumns;
+    private JLabel cacheSummaryLabel;
+    private JComboBox<String> archiveFilterBox;
+    private JTextField containerFilterField;
+    private JTextField minSizeField;
+    private int browserSortColumn = -1;
+    private boolean browserAscending = true;
+    private int browserGeneration;
+    private JCheckBox watchCheckBox;
+    private CacheDirectorySync directorySync;
     
     // File management
-    private List<File> pendingFiles;
-    private Map<File, Integer> fileArchiveMapping;
+    private SwingWorker<Integer, PendingFileModel.PendingFile> fileScanner;
     
     public GameCacheGUI() {
         super("RS-Style Cache Manager");
@@ -42,17 +84,8 @@ public class GameCacheGUI extends JFrame {
     }
     
     private void initializeComponents() {
-        pendingFiles = new ArrayList<>();
-        fileArchiveMapping = new HashMap<>();
-        
         // Initialize table model
-        String[] columns = {"Filename", "Archive ID", "File ID", "Size", "Container"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        pendingModel = new PendingFileModel();
         
         // Initialize archive combo box
         archiveComboBox = new JComboBox<>();
@@ -83,14 +116,24 @@ public class GameCacheGUI extends JFrame {
         logArea.setBorder(new TitledBorder("Activity Log"));
         JScrollPane logScrollPane = new JScrollPane(logArea);
         
-        // Status bar
+        // Status bar, with a progress bar shown while the cache index loads
         statusLabel = new JLabel("Ready");
-        statusLabel.setBorder(BorderFactory.createLoweredBevelBorder());
+        loadProgress = new JProgressBar(0, 100);
+        loadProgress.setStringPainted(true);
+        loadProgress.setVisible(false);
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.setBorder(BorderFactory.createLoweredBevelBorder());
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(loadProgress, BorderLayout.EAST);
+        
+        // Log lines and progress are coalesced into at most 10 UI updates per second
+        uiUpdates = new UiUpdateChannel(logArea, statusLabel, 5000, 10);
+        uiUpdates.start();
         
         // Main layout
         add(tabbedPane, BorderLayout.CENTER);
         add(logScrollPane, BorderLayout.SOUTH);
-        add(statusLabel, BorderLayout.NORTH);
+        add(statusPanel, BorderLayout.NORTH);
         
         centerFrame();
     }
@@ -101,18 +144,22 @@ public class GameCacheGUI extends JFrame {
         
         // Top controls
         JPanel topPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-        JButton addFilesBtn = new JButton("Add Files");
+        JButton addFilesBtn = new JButton("Add Files/Folders");
         JButton clearFilesBtn = new JButton("Clear Files");
         JButton setArchiveBtn = new JButton("Set Archive for Selected");
+        JButton syncFolderBtn = new JButton("Sync Folder...");
+        watchCheckBox = new JCheckBox("Watch for changes");
         
         topPanel.add(addFilesBtn);
         topPanel.add(clearFilesBtn);
         topPanel.add(new JLabel("Archive:"));
         topPanel.add(archiveComboBox);
         topPanel.add(setArchiveBtn);
+        topPanel.add(syncFolderBtn);
+        topPanel.add(watchCheckBox);
         
         // File list
-        fileTable = new JTable(tableModel);
+        fileTable = new JTable(pendingModel);
         fileTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         JScrollPane tableScroll = new JScrollPane(fileTable);
         tableScroll.setBorder(new TitledBorder("Pending Files"));
@@ -131,7 +178,12 @@ public class GameCacheGUI extends JFrame {
         addFilesBtn.addActionListener(e -> addFiles());
         clearFilesBtn.addActionListener(e -> clearFiles());
         setArchiveBtn.addActionListener(e -> setArchiveForSelected());
+        syncFolderBtn.addActionListener(e -> syncFolder());
+        watchCheckBox.addActionListener(e -> {
+            if (!watchCheckBox.isSelected()) stopWatching();
+        });
         buildCacheBtn.addActionListener(e -> buildCache());
+        cacheActions.addAll(Arrays.asList(syncFolderBtn, watchCheckBox, buildCacheBtn, updateCacheBtn));
         updateCacheBtn.addActionListener(e -> updateCache());
         changeFilesBtn.addActionListener(e -> showChangeNotImplemented());
         
@@ -146,29 +198,255 @@ public class GameCacheGUI extends JFrame {
         JPanel panel = new JPanel(new BorderLayout(10, 10));
         panel.setBorder(new EmptyBorder(10, 10, 10, 10));
         
-        // Cache info
-        JTextArea infoArea = new JTextArea(15, 60);
-        infoArea.setEditable(false);
-        infoArea.setBorder(new TitledBorder("Cache Information"));
-        updateCacheInfo(infoArea);
+        // Cache browser: a virtual table over primitive columns, filtered and sorted off the EDT
+        browserModel = new CacheBrowserModel();
+        JTable browserTable = new JTable(browserModel);
+        browserTable.setFillsViewportHeight(true);
+        browserTable.getTableHeader().setReorderingAllowed(false);
+        browserTable.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = browserTable.columnAtPoint(e.getPoint());
+                if (column < 0) return;
+                browserAscending = column != browserSortColumn || !browserAscending;
+                browserSortColumn = column;
+                applyBrowserView();
+            }
+        });
+        
+        cacheSummaryLabel = new JLabel("Cache not initialized");
+        archiveFilterBox = new JComboBox<>(new String[]{"All"});
+        containerFilterField = new JTextField(4);
+        minSizeField = new JTextField(6);
+        JButton applyFilterBtn = new JButton("Apply Filter");
+        ActionListener applyFilter = e -> applyBrowserView();
+        applyFilterBtn.addActionListener(applyFilter);
+        containerFilterField.addActionListener(applyFilter);
+        minSizeField.addActionListener(applyFilter);
+        archiveFilterBox.addActionListener(applyFilter);
+        
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        filterPanel.add(new JLabel("Archive:"));
+        filterPanel.add(archiveFilterBox);
+        filterPanel.add(new JLabel("Container:"));
+        filterPanel.add(containerFilterField);
+        filterPanel.add(new JLabel("Min size (KB):"));
+        filterPanel.add(minSizeField);
+        filterPanel.add(applyFilterBtn);
+        
+        JPanel browserPanel = new JPanel(new BorderLayout());
+        browserPanel.setBorder(new TitledBorder("Cache Browser"));
+        browserPanel.add(filterPanel, BorderLayout.NORTH);
+        browserPanel.add(new JScrollPane(browserTable), BorderLayout.CENTER);
+        browserPanel.add(cacheSummaryLabel, BorderLayout.SOUTH);
         
-        JScrollPane infoScroll = new JScrollPane(infoArea);
+        // Live metrics, refreshed once a second from the cache's counters
+        metricsArea = new JTextArea(9, 60);
+        metricsArea.setEditable(false);
+        metricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        JScrollPane metricsScroll = new JScrollPane(metricsArea);
+        metricsScroll.setBorder(new TitledBorder("Live Metrics (also published via JMX)"));
+        metricsTimer = new javax.swing.Timer(1000, e -> updateMetrics());
+        metricsTimer.start();
         
-        // Refresh button
+        JSplitPane splitPane = new JSplitPane(JSplitPane.VERTICAL_SPLIT, browserPanel, metricsScroll);
+        splitPane.setResizeWeight(0.6);
+        
+        // Refresh and reset buttons
         JButton refreshBtn = new JButton("Refresh Cache Info");
-        refreshBtn.addActionListener(e -> updateCacheInfo(infoArea));
+        refreshBtn.addActionListener(e -> refreshBrowser());
+        JButton resetMetricsBtn = new JButton("Reset Metrics");
+        resetMetricsBtn.addActionListener(e -> {
+            if (gameCache != null) {
+                gameCache.getMetrics().reset();
+                updateMetrics();
+            }
+        });
+        JButton traceBtn = new JButton("Start Trace...");
+        traceBtn.addActionListener(e -> toggleTrace(traceBtn));
+        JButton relayoutBtn = new JButton("Optimize Layout...");
+        relayoutBtn.addActionListener(e -> relayoutCache());
+        JButton backupBtn = new JButton("Backup...");
+        backupBtn.addActionListener(e -> backupCache());
+        JButton restoreBtn = new JButton("Restore...");
+        restoreBtn.addActionListener(e -> restoreCache());
+        JPanel buttonPanel = new JPanel(new FlowLayout());
+        buttonPanel.add(refreshBtn);
+        buttonPanel.add(resetMetricsBtn);
+        buttonPanel.add(traceBtn);
+        buttonPanel.add(relayoutBtn);
+        buttonPanel.add(backupBtn);
+        buttonPanel.add(restoreBtn);
         
-        panel.add(infoScroll, BorderLayout.CENTER);
-        panel.add(refreshBtn, BorderLayout.SOUTH);
+        // Name search through the per-archive name-hash index
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JTextField nameField = new JTextField(20);
+        JComboBox<Integer> searchArchiveBox = new JComboBox<>();
+        for (int i = 0; i < 10; i++) {
+            searchArchiveBox.addItem(i);
+        }
+        JButton findBtn = new JButton("Find by Name");
+        JLabel searchResult = new JLabel(" ");
+        ActionListener find = e -> findByName(nameField.getText().trim(),
+            (Integer) searchArchiveBox.getSelectedItem(), searchResult);
+        findBtn.addActionListener(find);
+        nameField.addActionListener(find);
+        searchPanel.add(new JLabel("Name:"));
+        searchPanel.add(nameField);
+        searchPanel.add(new JLabel("Archive:"));
+        searchPanel.add(searchArchiveBox);
+        searchPanel.add(findBtn);
+        searchPanel.add(searchResult);
+        
+        panel.add(searchPanel, BorderLayout.NORTH);
+        panel.add(splitPane, BorderLayout.CENTER);
+        panel.add(buttonPanel, BorderLayout.SOUTH);
         
         return panel;
     }
     
+    private void findByName(String name, int archiveId, JLabel result) {
+        if (gameCache == null || name.isEmpty()) {
+            result.setText(" ");
+            return;
+        }
+        int fileId = gameCache.getFileId(archiveId, name);
+        if (fileId < 0) {
+            result.setText("'" + name + "' not found in archive " + archiveId);
+            return;
+        }
+        GameCache.IndexEntry entry = gameCache.getEntry(archiveId, fileId);
+        if (entry == null) return;
+        result.setText("'" + name + "' -> File ID " + fileId + ", " + formatFileSize(entry.payloadLength())
+            + ", container " + entry.container);
+    }
+    
+    // Starts recording an access trace to a chosen file, or stops the running one
+    private void toggleTrace(JButton traceBtn) {
+        if (gameCache == null) return;
+        try {
+            if (gameCache.isTracing()) {
+                gameCache.stopTrace();
+                traceBtn.setText("Start Trace...");
+                log("Access trace stopped");
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File("game_cache.trace"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            File file = chooser.getSelectedFile();
+            gameCache.startTrace(file.toPath());
+            traceBtn.setText("Stop Trace");
+            log("Recording access trace to " + file.getAbsolutePath());
+        } catch (IOException ex) {
+            log("Trace error: " + ex.getMessage());
+        }
+    }
+    
+    // Rewrites the data file in the co-access order of a recorded trace, or archive order if none is chosen
+    private void relayoutCache() {
+        GameCache cache = gameCache;
+        if (cache == null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Choose an access trace (Cancel to order by archive and file)");
+        Path trace = chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION
+            ? chooser.getSelectedFile().toPath() : null;
+        
+        log("Optimizing data file layout...");
+        new Thread(() -> {
+            try {
+                log(cache.relayout(trace).toString());
+            } catch (IOException e) {
+                log("Relayout failed: " + e.getMessage());
+            }
+            SwingUtilities.invokeLater(this::refreshBrowser);
+        }).start();
+    }
+    
+    // Backups are chosen by their .dat file and written as a base path like the cache itself
+    private String chooseBackup(boolean save) {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File(cacheBasePath + "_backup.dat"));
+        int result = save ? chooser.showSaveDialog(this) : chooser.showOpenDialog(this);
+        if (result != JFileChooser.APPROVE_OPTION) return null;
+        String path = chooser.getSelectedFile().getPath();
+        return path.endsWith(".dat") ? path.substring(0, path.length() - 4) : path;
+    }
+    
+    private void backupCache() {
+        GameCache cache = gameCache;
+        if (cache == null) return;
+        String target = chooseBackup(true);
+        if (target == null) return;
+        
+        log("Backing up cache to " + target + "...");
+        new Thread(() -> {
+            try {
+                log(cache.backup(target).toString());
+            } catch (IOException e) {
+                log("Backup failed: " + e.getMessage());
+            }
+        }).start();
+    }
+    
+    private void restoreCache() {
+        String backup = chooseBackup(false);
+        if (backup == null) return;
+        int result = JOptionPane.showConfirmDialog(this,
+            "This will replace the current cache with the backup.\nProceed?",
+            "Restore Cache", JOptionPane.YES_NO_OPTION);
+        if (result != JOptionPane.YES_OPTION) return;
+        
+        new Thread(() -> {
+            try {
+                setUIEnabled(false);
+                statusLabel.setText("Restoring cache...");
+                stopWatching();
+                if (gameCache != null) gameCache.close();
+                gameCache = null;
+                log(GameCache.restore(backup, cacheBasePath, 317,
+                    Runtime.getRuntime().availableProcessors()).toString());
+                log("Cache restored from " + backup);
+            } catch (IOException e) {
+                log("Restore failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log("Restore interrupted");
+            } finally {
+                SwingUtilities.invokeLater(() -> {
+                    setUIEnabled(true);
+                    loadCache();
+                });
+            }
+        }).start();
+    }
+    
+    private void updateMetrics() {
+        GameCache cache = gameCache;
+        metricsArea.setText(cache != null ? cache.getMetrics().summary() : "Cache not initialized");
+    }
+    
     private void setupEventHandlers() {
         addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowOpened(WindowEvent e) {
+                log(String.format("Startup: window shown %d ms after construction, %d ms after JVM start",
+                    (System.nanoTime() - startupNanos) / 1_000_000,
+                    ManagementFactory.getRuntimeMXBean().getUptime()));
+            }
+            
+
             @Override
             public void windowClosing(WindowEvent e) {
+                metricsTimer.stop();
+                uiUpdates.stop();
+                stopWatching();
                 if (gameCache != null) {
+                    try {
+                        gameCache.close();
+                    } catch (IOException ex) {
+                        System.err.println("Error closing cache: " + ex.getMessage());
+                    }
                     log("Cache manager closed");
                 }
             }
@@ -184,63 +462,199 @@ public class GameCacheGUI extends JFrame {
     private void addFiles() {
         JFileChooser fileChooser = new JFileChooser();
         fileChooser.setMultiSelectionEnabled(true);
-        fileChooser.setDialogTitle("Select Files to Import");
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setDialogTitle("Select Files or Folders to Import");
         
         int result = fileChooser.showOpenDialog(this);
-        if (result == JFileChooser.APPROVE_OPTION) {
-            File[] files = fileChooser.getSelectedFiles();
-            for (File file : files) {
-                if (!pendingFiles.contains(file)) {
-                    pendingFiles.add(file);
-                    fileArchiveMapping.put(file, 0); // Default to archive 0
-                    tableModel.addRow(new Object[]{
-                        file.getName(),
-                        0,
-                        pendingFiles.size() - 1,
-                        formatFileSize(file.length()),
-                        0
+        if (result != JFileChooser.APPROVE_OPTION) return;
+        if (fileScanner != null && !fileScanner.isDone()) {
+            JOptionPane.showMessageDialog(this, "Still adding files from the previous selection", "Add Files", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        
+        File[] selected = fileChooser.getSelectedFiles();
+        int defaultArchive = (Integer) archiveComboBox.getSelectedItem();
+        statusLabel.setText("Scanning selection...");
+        
+        // Walk folders in the background; rows reach the table in chunks through publish/process
+        fileScanner = new SwingWorker<Integer, PendingFileModel.PendingFile>() {
+            private int found;
+            private int added;
+            private int rejected;
+            
+            @Override
+            protected Integer doInBackground() throws IOException {
+                for (File file : selected) {
+                    Path root = file.toPath();
+                    if (!file.isDirectory()) {
+                        publish(new PendingFileModel.PendingFile(file, file.length(), -1, -1));
+                        found++;
+                        continue;
+                    }
+                    Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                            if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+                            // Folders laid out as <archive>/<fileId>.* keep their ids
+                            int[] ids = CacheDirectorySync.parseLayout(root.relativize(path));
+                            publish(new PendingFileModel.PendingFile(path.toFile(), attrs.size(),
+                                ids != null ? ids[0] : -1, ids != null ? ids[1] : -1));
+                            found++;
+                            return FileVisitResult.CONTINUE;
+                        }
+                        
+                        @Override
+                        public FileVisitResult visitFileFailed(Path path, IOException e) {
+                            log("Skipped " + path + ": " + e.getMessage());
+                            return FileVisitResult.CONTINUE;
+                        }
                     });
                 }
+                return found;
             }
-            log("Added " + files.length + " files to import list");
-        }
+            
+            @Override
+            protected void process(List<PendingFileModel.PendingFile> chunk) {
+                List<PendingFileModel.PendingFile> collisions = new ArrayList<>();
+                added += pendingModel.addAll(chunk, defaultArchive, collisions);
+                for (PendingFileModel.PendingFile pending : collisions) {
+                    log("Skipped " + pending.file.getName() + ": archive " + pending.archiveId
+                        + " already has a pending file with ID " + pending.fileId);
+                }
+                rejected += collisions.size();
+                statusLabel.setText("Scanning selection... " + added + " files added");
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    int total = get();
+                    int duplicates = total - added - rejected;
+                    log("Added " + added + " files to import list" + (duplicates > 0 ? " (" + duplicates + " already pending)" : "")
+                        + (rejected > 0 ? " (" + rejected + " skipped for ID collisions)" : ""));
+                } catch (Exception e) {
+                    log("Error adding files: " + e.getMessage());
+                }
+                statusLabel.setText("Cache Ready");
+            }
+        };
+        fileScanner.execute();
     }
     
     private void clearFiles() {
-        int fileCount = pendingFiles.size();
-        pendingFiles.clear();
-        fileArchiveMapping.clear();
-        tableModel.setRowCount(0);
+        int fileCount = pendingModel.getRowCount();
+        pendingModel.clear();
         log("Cleared " + fileCount + " pending files");
     }
     
     private void setArchiveForSelected() {
         int selectedRow = fileTable.getSelectedRow();
-        if (selectedRow >= 0 && selectedRow < pendingFiles.size()) {
-            File file = pendingFiles.get(selectedRow);
+        if (selectedRow >= 0 && selectedRow < pendingModel.getRowCount()) {
             int archiveId = (Integer) archiveComboBox.getSelectedItem();
-            fileArchiveMapping.put(file, archiveId);
-            tableModel.setValueAt(archiveId, selectedRow, 1);
-            log("Set archive " + archiveId + " for file: " + file.getName());
+            PendingFileModel.PendingFile file = pendingModel.setArchive(selectedRow, archiveId);
+            log("Set archive " + archiveId + " for file: " + file.file.getName() + " (ID: " + file.fileId + ")");
         } else {
             JOptionPane.showMessageDialog(this, "Please select a file first", "No Selection", JOptionPane.WARNING_MESSAGE);
         }
     }
     
     // Cache operations
+    // Opens the cache on a worker thread so the window paints straight away; actions that need
+    // the cache stay disabled until it is open
     private void loadCache() {
-        try {
-            gameCache = new GameCache(cacheBasePath, 317);
-            log("Cache system initialized");
-            statusLabel.setText("Cache Ready - Version: 317");
-        } catch (IOException e) {
-            log("Error initializing cache: " + e.getMessage());
-            statusLabel.setText("Cache Error - Check Log");
+        setCacheActionsEnabled(false);
+        loadProgress.setValue(0);
+        loadProgress.setVisible(true);
+        statusLabel.setText("Loading cache index...");
+        long start = System.nanoTime();
+        new SwingWorker<GameCache, Integer>() {
+            @Override
+            protected GameCache doInBackground() throws IOException {
+                return new GameCache(cacheBasePath, 317,
+                    (loaded, total) -> publish((int) (loaded * 100 / total)));
+            }
+            
+            @Override
+            protected void process(List<Integer> percents) {
+                loadProgress.setValue(percents.get(percents.size() - 1));
+            }
+            
+            @Override
+            protected void done() {
+                loadProgress.setVisible(false);
+                try {
+                    gameCache = get();
+                    log(String.format("Cache system initialized in %d ms (%,d entries, index %s, index parse %.0f ms)",
+                        (System.nanoTime() - start) / 1_000_000, gameCache.getEntryCount(),
+                        formatFileSize(new File(cacheBasePath + ".idx").length()),
+                        gameCache.getMetrics().loadLatency.max() / 1e6));
+                    log(String.format("Startup: cache ready %d ms after construction",
+                        (System.nanoTime() - startupNanos) / 1_000_000));
+                    statusLabel.setText("Cache Ready - Version: 317");
+                    refreshBrowser();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    log("Error initializing cache: " + e.getCause().getMessage());
+                    statusLabel.setText("Cache Error - Check Log");
+                }
+                // Building a new cache still works if the old one could not be opened
+                setCacheActionsEnabled(true);
+            }
+        }.execute();
+    }
+    
+    private void setCacheActionsEnabled(boolean enabled) {
+        for (Component action : cacheActions) action.setEnabled(enabled);
+        tabbedPane.setEnabledAt(1, enabled);
+    }
+    
+    // Incremental import of a <archive>/<fileId>.* folder tree, optionally kept in sync
+    private void syncFolder() {
+        if (gameCache == null) return;
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        chooser.setDialogTitle("Select Folder to Sync (<archive>/<fileId>.*)");
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        Path root = chooser.getSelectedFile().toPath();
+        boolean watch = watchCheckBox.isSelected();
+        stopWatching();
+        new Thread(() -> {
+            try {
+                setUIEnabled(false);
+                statusLabel.setText("Syncing " + root + "...");
+                directorySync = new CacheDirectorySync(gameCache, root, Paths.get(cacheBasePath + ".sync"));
+                log("Synced " + root + ": " + directorySync.sync());
+                
+                if (watch) {
+                    directorySync.startWatching(
+                        result -> {
+                            log("Auto-sync " + root + ": " + result);
+                            SwingUtilities.invokeLater(this::refreshBrowser);
+                        },
+                        error -> log("Auto-sync error: " + error.getMessage()));
+                    log("Watching " + root + " for changes");
+                }
+            } catch (IOException e) {
+                log("Error syncing folder: " + e.getMessage());
+            } finally {
+                setUIEnabled(true);
+                statusLabel.setText("Cache Ready");
+                SwingUtilities.invokeLater(this::refreshBrowser);
+            }
+        }).start();
+    }
+    
+    private void stopWatching() {
+        if (directorySync != null && directorySync.isWatching()) {
+            directorySync.stopWatching();
+            log("Stopped watching folder");
         }
     }
     
     private void buildCache() {
-        if (pendingFiles.isEmpty()) {
+        if (pendingModel.getRowCount() == 0) {
             JOptionPane.showMessageDialog(this, "No files to import", "Build Cache", JOptionPane.WARNING_MESSAGE);
             return;
         }
@@ -250,20 +664,27 @@ public class GameCacheGUI extends JFrame {
             "Build New Cache", JOptionPane.YES_NO_OPTION);
             
         if (result == JOptionPane.YES_OPTION) {
+            List<PendingFileModel.PendingFile> files = pendingModel.snapshot();
             new Thread(() -> {
                 try {
                     setUIEnabled(false);
                     statusLabel.setText("Building new cache...");
                     
                     // Delete existing cache
+                    stopWatching();
+                    if (gameCache != null) gameCache.close();
                     new File(cacheBasePath + ".dat").delete();
                     new File(cacheBasePath + ".idx").delete();
+                    new File(cacheBasePath + ".sync").delete();
+                    // Old feed records point into the deleted data file; followers must reseed
+                    ChangeFeed.resetIfPresent(Paths.get(cacheBasePath + ".feed"));
+                    Files.deleteIfExists(Paths.get(cacheBasePath + ".feedpos"));
                     
                     // Reload cache to create new files
                     gameCache = new GameCache(cacheBasePath, 317);
                     
                     // Import all files
-                    importPendingFiles();
+                    importPendingFiles(files);
                     
                     log("New cache built successfully!");
                     JOptionPane.showMessageDialog(this, "Cache built successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -274,23 +695,25 @@ public class GameCacheGUI extends JFrame {
                 } finally {
                     setUIEnabled(true);
                     statusLabel.setText("Cache Ready");
+                    SwingUtilities.invokeLater(this::refreshBrowser);
                 }
             }).start();
         }
     }
     
     private void updateCache() {
-        if (pendingFiles.isEmpty()) {
+        if (pendingModel.getRowCount() == 0) {
             JOptionPane.showMessageDialog(this, "No files to import", "Update Cache", JOptionPane.WARNING_MESSAGE);
             return;
         }
         
+        List<PendingFileModel.PendingFile> files = pendingModel.snapshot();
         new Thread(() -> {
             try {
                 setUIEnabled(false);
                 statusLabel.setText("Updating cache...");
                 
-                importPendingFiles();
+                importPendingFiles(files);
                 
                 log("Cache updated successfully!");
                 JOptionPane.showMessageDialog(this, "Cache updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -301,101 +724,134 @@ public class GameCacheGUI extends JFrame {
             } finally {
                 setUIEnabled(true);
                 statusLabel.setText("Cache Ready");
+                SwingUtilities.invokeLater(this::refreshBrowser);
             }
         }).start();
     }
     
-    private void importPendingFiles() {
-    int successCount = 0;
-    int totalFiles = pendingFiles.size();
-
-    for (int i = 0; i < pendingFiles.size(); i++) {
-        File file = pendingFiles.get(i);
-        int archiveId = fileArchiveMapping.get(file);
-        final int currentFileIndex = i; // Create a final copy of i
-
-        try {
-            byte[] fileData = Files.readAllBytes(file.toPath());
-            gameCache.put(archiveId, i, fileData, 0);
-            log("Imported: " + file.getName() + " to archive " + archiveId + " (ID: " + i + ")");
-            successCount++;
-
-            // Update progress
-            final int progress = (currentFileIndex + 1) * 100 / totalFiles;
-            SwingUtilities.invokeLater(() ->
-                statusLabel.setText("Importing... " + progress + "% (" + (currentFileIndex + 1) + "/" + totalFiles + ")")
-            );
-
-        } catch (IOException e) {
-            log("Failed to import " + file.getName() + ": " + e.getMessage());
+    private void importPendingFiles(List<PendingFileModel.PendingFile> files) throws IOException {
+        int successCount = 0;
+        int totalFiles = files.size();
+        long totalBytes = 0;
+        for (PendingFileModel.PendingFile pending : files) {
+            totalBytes += pending.size;
+        }
+        uiUpdates.startProgress("Importing", totalFiles, totalBytes);
+        
+        // Commit in chunks so the index is saved a handful of times rather than once per file
+        try (GameCache.Batch batch = gameCache.batch()) {
+            for (PendingFileModel.PendingFile pending : files) {
+                File file = pending.file;
+                int archiveId = pending.archiveId;
+                int fileId = pending.fileId;
+                
+                try {
+                    batch.put(archiveId, fileId, file.getName(), file.toPath(), 0);
+                    log("Imported: " + file.getName() + " to archive " + archiveId + " (ID: " + fileId + ")");
+                    successCount++;
+                } catch (IOException e) {
+                    log("Failed to import " + file.getName() + ": " + e.getMessage());
+                }
+                uiUpdates.progress(pending.size);
+                
+                if (batch.size() >= 5000) batch.commit();
+            }
+            batch.commit();
+        } finally {
+            uiUpdates.finishProgress();
         }
+        
+        // Clear pending files after import
+        SwingUtilities.invokeLater(pendingModel::clear);
+        
+        log("Import completed: " + successCount + "/" + totalFiles + " files successfully imported");
     }
-
-    // Clear pending files after import
-    SwingUtilities.invokeLater(() -> {
-        pendingFiles.clear();
-        fileArchiveMapping.clear();
-        tableModel.setRowCount(0);
-    });
-
-    log("Import completed: " + successCount + "/" + totalFiles + " files successfully imported");
-}
     
-    private void updateCacheInfo(JTextArea infoArea) {
-        if (gameCache == null) {
-            infoArea.setText("Cache not initialized");
+    // Re-reads the index into primitive columns in the background, then re-applies filter and sort
+    private void refreshBrowser() {
+        GameCache cache = gameCache;
+        if (cache == null) {
+            cacheSummaryLabel.setText("Cache not initialized");
             return;
         }
-        
-        StringBuilder info = new StringBuilder();
-        info.append("Cache Version: 317\n");
-        info.append("Base Path: ").append(cacheBasePath).append("\n\n");
-        
-        try {
-            Map<Integer, GameCache.CacheIndex> indices = gameCache.getIndices();
-            info.append("Archives: ").append(indices.size()).append("\n\n");
+        cacheSummaryLabel.setText("Loading cache index...");
+        new SwingWorker<CacheBrowserModel.Columns, Void>() {
+            @Override
+            protected CacheBrowserModel.Columns doInBackground() {
+                return CacheBrowserModel.Columns.read(cache);
+            }
             
-            for (Map.Entry<Integer, GameCache.CacheIndex> entry : indices.entrySet()) {
-                GameCache.CacheIndex index = entry.getValue();
-                info.append("Archive ").append(entry.getKey()).append(":\n");
-                info.append("  Files: ").append(index.entries.size()).append("\n");
-                info.append("  Protocol: ").append(index.protocol).append("\n");
-                
-                // Show first few files
-                int count = 0;
-                for (GameCache.IndexEntry fileEntry : index.entries.values()) {
-                    if (count++ >= 5) {
-                        info.append("  ... and ").append(index.entries.size() - 5).append(" more\n");
-                        break;
-                    }
-                    info.append("    File ID: ").append(fileEntry.fileId)
-                        .append(", Size: ").append(fileEntry.dataLength)
-                        .append(" bytes\n");
+            @Override
+            protected void done() {
+                try {
+                    CacheBrowserModel.Columns columns = get();
+                    Object selected = archiveFilterBox.getSelectedItem();
+                    DefaultComboBoxModel<String> archives = new DefaultComboBoxModel<>();
+                    archives.addElement("All");
+                    for (int archiveId : columns.archiveIds()) archives.addElement(String.valueOf(archiveId));
+                    archives.setSelectedItem(selected != null && archives.getIndexOf(selected) >= 0 ? selected : "All");
+                    ActionListener[] listeners = archiveFilterBox.getActionListeners();
+                    for (ActionListener l : listeners) archiveFilterBox.removeActionListener(l);
+                    archiveFilterBox.setModel(archives);
+                    for (ActionListener l : listeners) archiveFilterBox.addActionListener(l);
+                    
+                    browserColumns = columns;
+                    applyBrowserView();
+                } catch (Exception e) {
+                    cacheSummaryLabel.setText("Error reading cache info: " + e.getMessage());
                 }
-                info.append("\n");
             }
-            
-            // File sizes
-            File dataFile = new File(cacheBasePath + ".dat");
-            File indexFile = new File(cacheBasePath + ".idx");
-            
-            info.append("File Sizes:\n");
-            info.append("  Data file: ").append(formatFileSize(dataFile.length())).append("\n");
-            info.append("  Index file: ").append(formatFileSize(indexFile.length())).append("\n");
-            
-        } catch (Exception e) {
-            info.append("Error reading cache info: ").append(e.getMessage());
+        }.execute();
+    }
+    
+    private void applyBrowserView() {
+        CacheBrowserModel.Columns columns = browserColumns;
+        if (columns == null) return;
+        
+        Object archive = archiveFilterBox.getSelectedItem();
+        int archiveFilter = archive == null || "All".equals(archive) ? -1 : Integer.parseInt(archive.toString());
+        int containerFilter;
+        long minSize;
+        try {
+            String container = containerFilterField.getText().trim();
+            containerFilter = container.isEmpty() ? -1 : Integer.parseInt(container);
+            String size = minSizeField.getText().trim();
+            minSize = size.isEmpty() ? 0 : Long.parseLong(size) * 1024;
+        } catch (NumberFormatException e) {
+            cacheSummaryLabel.setText("Filters must be whole numbers");
+            return;
         }
         
-        infoArea.setText(info.toString());
+        int sortColumn = browserSortColumn;
+        boolean ascending = browserAscending;
+        int generation = ++browserGeneration;
+        new SwingWorker<int[], Void>() {
+            @Override
+            protected int[] doInBackground() {
+                return columns.view(archiveFilter, containerFilter, minSize, sortColumn, ascending);
+            }
+            
+            @Override
+            protected void done() {
+                // A newer refresh or filter supersedes this result
+                if (generation != browserGeneration) return;
+                try {
+                    int[] view = get();
+                    browserModel.setData(columns, view);
+                    cacheSummaryLabel.setText(String.format("Version 317 | %s | %,d archives, %,d files (%,d shown) | Data: %s | Index: %s",
+                        cacheBasePath, columns.archiveIds().length, columns.count, view.length,
+                        formatFileSize(new File(cacheBasePath + ".dat").length()),
+                        formatFileSize(new File(cacheBasePath + ".idx").length())));
+                } catch (Exception e) {
+                    cacheSummaryLabel.setText("Error reading cache info: " + e.getMessage());
+                }
+            }
+        }.execute();
     }
     
     // Utility methods
     private void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append("[" + new Date() + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        uiUpdates.log("[" + new Date() + "] " + message);
     }
     
     private void setUIEnabled(boolean enabled) {
@@ -408,7 +864,7 @@ public class GameCacheGUI extends JFrame {
         });
     }
     
-    private String formatFileSize(long size) {
+    static String formatFileSize(long size) {
         if (size < 1024) return size + " B";
         if (size < 1024 * 1024) return String.format("%.1f KB", size / 1024.0);
         return String.format("%.1f MB", size / (1024.0 * 1024.0));
@@ -423,6 +879,12 @@ public class GameCacheGUI extends JFrame {
     }
     
     public static void main(String[] args) {
+        // Any arguments select the headless command-line tool instead of the GUI
+        if (args.length > 0) {
+            GameCacheTool.main(args);
+            return;
+        }
+        
         SwingUtilities.invokeLater(() -> {
             try {
                 UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -436,23 +898,71 @@ public class GameCacheGUI extends JFrame {
 }
 
 // Game Cache Implementation (same file)
-class GameCache {
+class GameCache implements Closeable {
+    private static final BufferPool BUFFERS = new BufferPool(16);
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+    private static final ThreadLocal<IoBuffers> IO_BUFFERS = ThreadLocal.withInitial(IoBuffers::new);
+    
     private final File dataFile;
     private final File indexFile;
     private final Map<Integer, CacheIndex> indices;
     private final int version;
+    private final CacheMetrics metrics;
+    
+    // One channel at a time: reads are positional, appends reserve space via dataEnd. Every data
+    // file access holds the layout read lock; relayout takes the write lock to swap the file.
+    private RandomAccessFile dataRaf;
+    private FileChannel dataChannel;
+    private final AtomicLong dataEnd;
+    private final Object appendLock = new Object();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock layoutLock = new ReentrantReadWriteLock();
+    private volatile int layoutGeneration;
+    private volatile AccessTrace trace;
+    private final Path feedPath;
+    private ChangeFeed feed;
+    
+    // Reports index loading, e.g. for a progress bar; called from the opening thread
+    interface LoadProgress {
+        void update(long bytesLoaded, long totalBytes);
+    }
     
     public GameCache(String basePath, int version) throws IOException {
+        this(basePath, version, null);
+    }
+    
+    public GameCache(String basePath, int version, LoadProgress progress) throws IOException {
         this.dataFile = new File(basePath + ".dat");
         this.indexFile = new File(basePath + ".idx");
         this.indices = new HashMap<>();
         this.version = version;
+        this.metrics = new CacheMetrics();
         
         // Ensure files exist
         if (!dataFile.exists()) dataFile.createNewFile();
         if (!indexFile.exists()) indexFile.createNewFile();
         
-        loadIndices();
+        recoverRelayout();
+        loadIndices(progress);
+        this.dataRaf = new RandomAccessFile(dataFile, "rw");
+        this.dataChannel = dataRaf.getChannel();
+        this.dataEnd = new AtomicLong(dataChannel.size());
+        if (crcsMissing) upgradeCrcs();
+        // Once a cache has a change feed, every writer keeps it up to date
+        this.feedPath = Paths.get(basePath + ".feed");
+        if (Files.exists(feedPath)) feed = new ChangeFeed(feedPath);
+        metrics.register(basePath);
+        
+        // -Dgamecache.trace=<file> records every access from startup
+        String tracePath = System.getProperty("gamecache.trace");
+        if (tracePath != null) startTrace(Paths.get(tracePath));
+    }
+    
+    // Per-thread scratch buffers for entry headers and gathering writes
+    private static class IoBuffers {
+        final ByteBuffer header = ByteBuffer.allocateDirect(12);
+        final ByteBuffer[] gather = new ByteBuffer[2];
+        final byte[] chunk = new byte[64 * 1024];
     }
     
     static class CacheEntry {
@@ -475,191 +985,4201 @@ class GameCache {
         int indexId;
         Map<Integer, IndexEntry> entries = new HashMap<>();
         int protocol;
+        final NameHashIndex names = new NameHashIndex();
         
         CacheIndex(int indexId, int protocol) {
             this.indexId = indexId;
             this.protocol = protocol;
         }
+        
+        // All entry changes go through here so the name index stays in sync
+        void add(IndexEntry entry) {
+            IndexEntry previous = entries.put(entry.fileId, entry);
+            if (previous != null) unname(previous);
+            if (entry.nameHash != 0) names.put(entry.nameHash, entry.fileId);
+        }
+        
+        IndexEntry remove(int fileId) {
+            IndexEntry removed = entries.remove(fileId);
+            if (removed != null) unname(removed);
+            return removed;
+        }
+        
+        private void unname(IndexEntry entry) {
+            if (entry.nameHash != 0 && names.get(entry.nameHash) == entry.fileId) {
+                names.remove(entry.nameHash);
+            }
+        }
+    }
+    
+    // An entry of a given archive: a snapshot row, or a batched put (entry set) / remove (entry null)
+    static class EntryRef {
+        final int indexId;
+        final int fileId;
+        final IndexEntry entry;
+        
+        EntryRef(int indexId, int fileId, IndexEntry entry) {
+            this.indexId = indexId;
+            this.fileId = fileId;
+            this.entry = entry;
+        }
     }
     
     static class IndexEntry {
         int fileId;
         long dataPosition;
-        int dataLength;
-        int sector;
+        long dataLength;
+        long sector;
         int container;
+        int nameHash;
+        int crc; // CRC32 of the whole payload
+        
+        // Payload bytes, i.e. dataLength minus one 12-byte header per segment
+        long payloadLength() {
+            return dataLength - 12L * segmentCount(dataLength);
+        }
+    }
+    
+    // Entries larger than MAX_SEGMENT are stored as consecutive segments, each with its own header
+    static final int MAX_SEGMENT = 1 << 30;
+    
+    static long diskLength(long payloadLength) {
+        long segments = Math.max(1, (payloadLength + MAX_SEGMENT - 1) / MAX_SEGMENT);
+        return payloadLength + 12 * segments;
+    }
+    
+    static long segmentCount(long diskLength) {
+        return Math.max(1, (diskLength + MAX_SEGMENT + 11) / (MAX_SEGMENT + 12));
     }
     
-    private void loadIndices() throws IOException {
-        if (indexFile.length() == 0) return;
+    // RS (317) style name hash; 0 means the entry has no name
+    static int nameHash(String name) {
+        if (name == null) return 0;
+        int hash = 0;
+        String upper = name.toUpperCase();
+        for (int i = 0; i < upper.length(); i++) {
+            hash = (hash * 61 + upper.charAt(i)) - 32;
+        }
+        return hash;
+    }
+    
+    static final int INDEX_MAGIC = 0x47434958; // "GCIX"
+    static final int INDEX_FORMAT = 4;
+    
+    // Entry sizes per index format: 1 = headerless original, 2 = + name hash, 3 = 64-bit length/sector,
+    // 4 = + payload CRC
+    private static int entrySize(int format) {
+        return format >= 4 ? 40 : format == 3 ? 36 : format == 2 ? 28 : 24;
+    }
+    
+    // Set when the loaded index predates payload CRCs; they are filled in once the data file is open
+    private boolean crcsMissing;
+    
+    // Streams the index through a fixed-size window, so memory use does not depend on index size
+    private void loadIndices(LoadProgress progress) throws IOException {
+        long total = indexFile.length();
+        long remaining = total;
+        if (remaining == 0) return;
+        long reported = 0;
         
-        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
-             FileChannel channel = raf.getChannel()) {
+        long start = System.nanoTime();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024))) {
             
-            ByteBuffer buffer = ByteBuffer.allocate((int) indexFile.length());
-            channel.read(buffer);
-            buffer.flip();
+            // Files without the header are the original headerless layout
+            int format = 1;
+            int first = in.readInt();
+            remaining -= 4;
+            boolean pendingIndexId = true;
+            if (first == INDEX_MAGIC && remaining >= 4) {
+                format = in.readInt();
+                remaining -= 4;
+                pendingIndexId = false;
+                if (format > INDEX_FORMAT) throw new IOException("Unsupported index format " + format);
+            }
+            int entrySize = entrySize(format);
+            crcsMissing = format < 4;
             
-            while (buffer.remaining() >= 12) {
-                int indexId = buffer.getInt();
-                int protocol = buffer.getInt();
-                int entryCount = buffer.getInt();
+            while (remaining >= (pendingIndexId ? 8 : 12)) {
+                int indexId = pendingIndexId ? first : in.readInt();
+                pendingIndexId = false;
+                int protocol = in.readInt();
+                int entryCount = in.readInt();
+                remaining -= 12;
                 
                 CacheIndex index = new CacheIndex(indexId, protocol);
                 
                 for (int i = 0; i < entryCount; i++) {
-                    if (buffer.remaining() < 24) break;
+                    if (remaining < entrySize) break;
+                    remaining -= entrySize;
                     
                     IndexEntry entry = new IndexEntry();
-                    entry.fileId = buffer.getInt();
-                    entry.dataPosition = buffer.getLong();
-                    entry.dataLength = buffer.getInt();
-                    entry.sector = buffer.getInt();
-                    entry.container = buffer.getInt();
+                    entry.fileId = in.readInt();
+                    entry.dataPosition = in.readLong();
+                    entry.dataLength = format >= 3 ? in.readLong() : in.readInt() & 0xFFFFFFFFL;
+                    entry.sector = format >= 3 ? in.readLong() : in.readInt() & 0xFFFFFFFFL;
+                    entry.container = in.readInt();
+                    if (format >= 2) entry.nameHash = in.readInt();
+                    if (format >= 4) entry.crc = in.readInt();
                     
-                    index.entries.put(entry.fileId, entry);
+                    index.add(entry);
+                    if (progress != null && total - remaining - reported >= 256 * 1024) {
+                        reported = total - remaining;
+                        progress.update(reported, total);
+                    }
                 }
                 
                 indices.put(indexId, index);
             }
+            if (progress != null) progress.update(total, total);
+        } finally {
+            metrics.indexLoads.increment();
+            metrics.loadLatency.record(System.nanoTime() - start);
         }
     }
     
-    
+    // Writes the index to a temporary file through a fixed-size buffer, then swaps it in atomically
     private void saveIndices() throws IOException {
-        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
-             FileChannel channel = raf.getChannel()) {
-            
-            // Calculate total size needed
-            int totalSize = indices.values().stream()
-                .mapToInt(index -> 12 + (index.entries.size() * 24))
-                .sum();
-            
-            ByteBuffer buffer = ByteBuffer.allocate(totalSize);
+        long start = System.nanoTime();
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            writeIndices(indices, tempFile);
+            Files.move(tempFile.toPath(), indexFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            metrics.indexSaves.increment();
+            metrics.saveLatency.record(System.nanoTime() - start);
+        }
+    }
+    
+    private static void writeIndices(Map<Integer, CacheIndex> indices, File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_FORMAT);
             
             for (CacheIndex index : indices.values()) {
-                buffer.putInt(index.indexId);
-                buffer.putInt(index.protocol);
-                buffer.putInt(index.entries.size());
+                out.writeInt(index.indexId);
+                out.writeInt(index.protocol);
+                out.writeInt(index.entries.size());
                 
                 for (IndexEntry entry : index.entries.values()) {
-                    buffer.putInt(entry.fileId);
-                    buffer.putLong(entry.dataPosition);
-                    buffer.putInt(entry.dataLength);
-                    buffer.putInt(entry.sector);
-                    buffer.putInt(entry.container);
+                    out.writeInt(entry.fileId);
+                    out.writeLong(entry.dataPosition);
+                    out.writeLong(entry.dataLength);
+                    out.writeLong(entry.sector);
+                    out.writeInt(entry.container);
+                    out.writeInt(entry.nameHash);
+                    out.writeInt(entry.crc);
                 }
             }
-            
-            buffer.flip();
-            channel.write(buffer);
-            channel.truncate(buffer.limit());
         }
     }
     
-    public void put(int indexId, int fileId, byte[] data, int container) throws IOException {
-        CacheIndex index = indices.computeIfAbsent(indexId, 
-            id -> new CacheIndex(id, this.version));
+    // One-off upgrade of an older index: an entry's payload CRC is its segment header CRC, or for
+    // entries split into several segments the CRC over all of them
+    private void upgradeCrcs() throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        for (CacheIndex index : indices.values()) entries.addAll(index.entries.values());
+        if (entries.isEmpty()) return;
+        entries.sort((a, b) -> Long.compare(a.dataPosition, b.dataPosition));
         
-        try (RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "rw");
-             FileChannel dataChannel = dataRaf.getChannel()) {
-            
-            // Calculate CRC for data integrity
-            CRC32 crc = new CRC32();
-            crc.update(data);
-            int dataCrc = (int) crc.getValue();
-            
-            // Seek to end for new data
-            long dataPosition = dataFile.length();
-            dataChannel.position(dataPosition);
-            
-            // Write data with header
-            ByteBuffer dataBuffer = ByteBuffer.allocate(data.length + 12);
-            dataBuffer.putInt(data.length);
-            dataBuffer.putInt(dataCrc);
-            dataBuffer.putInt(version);
-            dataBuffer.put(data);
-            dataBuffer.flip();
-            
-            dataChannel.write(dataBuffer);
-            
-            // Update index
-            IndexEntry entry = new IndexEntry();
-            entry.fileId = fileId;
-            entry.dataPosition = dataPosition;
-            entry.dataLength = data.length + 12;
-            entry.sector = (int) (dataPosition / 512);
-            entry.container = container;
-            
-            index.entries.put(fileId, entry);
+        ByteBuffer chunk = BUFFERS.acquire(1 << 20);
+        try {
+            for (IndexEntry entry : entries) {
+                if (segmentCount(entry.dataLength) == 1) {
+                    readSegmentHeader(entry, entry.dataPosition, entry.dataPosition + entry.dataLength);
+                    entry.crc = IO_BUFFERS.get().header.getInt(4);
+                } else {
+                    entry.crc = payloadCrc(entry, chunk);
+                }
+            }
+        } finally {
+            BUFFERS.release(chunk);
         }
-        
         saveIndices();
     }
     
-    public byte[] get(int indexId, int fileId) throws IOException {
-        CacheIndex index = indices.get(indexId);
-        if (index == null) return null;
+    public void put(int indexId, int fileId, byte[] data, int container) throws IOException {
+        put(indexId, fileId, null, data, container);
+    }
+    
+    public void put(int indexId, int fileId, String name, byte[] data, int container) throws IOException {
+        long start = System.nanoTime();
+        // Layout lock first, in the same order as relayout, so the entry cannot be moved in between
+        layoutLock.readLock().lock();
+        lock.writeLock().lock();
+        try {
+            IndexEntry entry = append(fileId, data, container);
+            entry.nameHash = nameHash(name);
+            indices.computeIfAbsent(indexId, id -> new CacheIndex(id, this.version)).add(entry);
+            saveIndices();
+            if (feed != null) {
+                feed.append(ChangeFeed.PUT, indexId, fileId, entry);
+                feed.flush();
+            }
+        } finally {
+            lock.writeLock().unlock();
+            layoutLock.readLock().unlock();
+            recordAccess(AccessTrace.OP_PUT, indexId, fileId, start);
+        }
+    }
+    
+    // Gathering write of header + caller's payload at the end of the data file; the payload is not copied
+    private IndexEntry append(int fileId, byte[] data, int container) throws IOException {
+        if (data.length > MAX_SEGMENT) {
+            return append(fileId, new ByteArrayInputStream(data), data.length, container);
+        }
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(data, 0, data.length);
         
-        IndexEntry entry = index.entries.get(fileId);
-        if (entry == null) return null;
+        IoBuffers io = IO_BUFFERS.get();
+        ByteBuffer header = io.header;
+        header.clear();
+        header.putInt(data.length);
+        header.putInt((int) crc.getValue());
+        header.putInt(version);
+        header.flip();
+        ByteBuffer payload = ByteBuffer.wrap(data);
+        io.gather[0] = header;
+        io.gather[1] = payload;
         
-        try (RandomAccessFile dataRaf = new RandomAccessFile(dataFile, "r");
-             FileChannel dataChannel = dataRaf.getChannel()) {
-            
-            ByteBuffer buffer = ByteBuffer.allocate(entry.dataLength);
-            dataChannel.position(entry.dataPosition);
-            dataChannel.read(buffer);
-            buffer.flip();
-            
-            // Read and verify header
-            int dataLength = buffer.getInt();
-            int storedCrc = buffer.getInt();
-            int storedVersion = buffer.getInt();
-            
-            if (dataLength != entry.dataLength - 12) {
-                throw new IOException("Data length mismatch for file " + fileId);
-            }
-            
-            byte[] data = new byte[dataLength];
-            buffer.get(data);
-            
-            // Verify CRC
-            CRC32 crc = new CRC32();
-            crc.update(data);
-            int calculatedCrc = (int) crc.getValue();
-            
-            if (storedCrc != calculatedCrc) {
-                throw new IOException("CRC mismatch for file " + fileId);
+        long position;
+        layoutLock.readLock().lock();
+        try {
+            synchronized (appendLock) {
+                position = dataEnd.getAndAdd(data.length + 12);
+                dataChannel.position(position);
+                while (header.hasRemaining() || payload.hasRemaining()) {
+                    dataChannel.write(io.gather);
+                }
             }
-            
-            return data;
+        } finally {
+            layoutLock.readLock().unlock();
+            io.gather[1] = null;
         }
+        return newEntry(fileId, position, data.length + 12, container, (int) crc.getValue());
     }
     
-    public boolean remove(int indexId, int fileId) throws IOException {
-        CacheIndex index = indices.get(indexId);
-        if (index == null) return false;
+    // Streams one entry into space reserved at the end of the data file, split into segments of
+    // at most MAX_SEGMENT bytes
+    private IndexEntry append(int fileId, InputStream in, long length, int container) throws IOException {
+        long dataLength = diskLength(length);
+        layoutLock.readLock().lock();
+        try {
+            long position = dataEnd.getAndAdd(dataLength);
+            long segmentPosition = position;
+            long remaining = length;
+            CRC32 payloadCrc = new CRC32();
+            do {
+                int segmentLength = (int) Math.min(remaining, MAX_SEGMENT);
+                writeSegment(fileId, in, segmentPosition, segmentLength, payloadCrc);
+                segmentPosition += 12 + segmentLength;
+                remaining -= segmentLength;
+            } while (remaining > 0);
+            return newEntry(fileId, position, dataLength, container, (int) payloadCrc.getValue());
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+    }
+    
+    // Writes one segment (header + payload); the CRC is computed on the fly and patched into
+    // the header afterwards
+    private void writeSegment(int fileId, InputStream in, long position, int length,
+                              CRC32 payloadCrc) throws IOException {
+        ByteBuffer header = IO_BUFFERS.get().header;
+        header.clear();
+        header.putInt(length);
+        header.putInt(0);
+        header.putInt(version);
+        header.flip();
+        writeFully(header, position);
         
-        IndexEntry removed = index.entries.remove(fileId);
-        if (removed != null) {
-            saveIndices();
-            return true;
+        CRC32 crc = CRC.get();
+        crc.reset();
+        ByteBuffer chunk = BUFFERS.acquire(64 * 1024);
+        byte[] bytes = IO_BUFFERS.get().chunk;
+        try {
+            long writePosition = position + 12;
+            int remaining = length;
+            while (remaining > 0) {
+                int read = in.read(bytes, 0, Math.min(bytes.length, remaining));
+                if (read < 0) throw new EOFException("Entry " + fileId + " truncated, " + remaining + " bytes missing");
+                crc.update(bytes, 0, read);
+                payloadCrc.update(bytes, 0, read);
+                chunk.clear();
+                chunk.put(bytes, 0, read).flip();
+                writeFully(chunk, writePosition);
+                writePosition += read;
+                remaining -= read;
+            }
+        } finally {
+            BUFFERS.release(chunk);
         }
-        return false;
+        
+        header.clear();
+        header.putInt(4, (int) crc.getValue());
+        header.position(4).limit(8);
+        writeFully(header, position + 4);
     }
     
-    public int getFileCount(int indexId) {
-        CacheIndex index = indices.get(indexId);
-        return index != null ? index.entries.size() : 0;
+    private IndexEntry newEntry(int fileId, long position, long dataLength, int container, int crc) {
+        IndexEntry entry = new IndexEntry();
+        entry.crc = crc;
+        entry.fileId = fileId;
+        entry.dataPosition = position;
+        entry.dataLength = dataLength;
+        entry.sector = position / 512;
+        entry.container = container;
+        metrics.bytesWritten.add(dataLength);
+        return entry;
     }
     
-    public boolean contains(int indexId, int fileId) {
-        CacheIndex index = indices.get(indexId);
-        return index != null && index.entries.containsKey(fileId);
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += dataChannel.write(buffer, position);
+        }
+    }
+    
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = dataChannel.read(buffer, position);
+            if (read < 0) throw new EOFException("Data file truncated at position " + position);
+            position += read;
+        }
+    }
+    
+    public Batch batch() {
+        return new Batch();
+    }
+    
+    // Appends many entries and saves the index once on commit.
+    // Entries become visible only when commit() succeeds.
+    class Batch implements Closeable {
+        private final List<EntryRef> staged = new ArrayList<>();
+        private int generation;
+        
+        private Batch() {
+        }
+        
+        // Staged entries point into the data file as it was when the first of them was written
+        private void beginAppend() {
+            if (staged.isEmpty()) generation = layoutGeneration;
+        }
+        
+        public void put(int indexId, int fileId, byte[] data, int container) throws IOException {
+            put(indexId, fileId, null, data, container);
+        }
+        
+        public void put(int indexId, int fileId, String name, byte[] data, int container) throws IOException {
+            long start = System.nanoTime();
+            beginAppend();
+            IndexEntry entry = append(fileId, data, container);
+            entry.nameHash = nameHash(name);
+            staged.add(new EntryRef(indexId, fileId, entry));
+            recordAccess(AccessTrace.OP_PUT, indexId, fileId, start);
+        }
+        
+        public void put(int indexId, int fileId, InputStream in, long length, int container,
+                        int nameHash) throws IOException {
+            long start = System.nanoTime();
+            beginAppend();
+            IndexEntry entry = append(fileId, in, length, container);
+            entry.nameHash = nameHash;
+            staged.add(new EntryRef(indexId, fileId, entry));
+            recordAccess(AccessTrace.OP_PUT, indexId, fileId, start);
+        }
+        
+        // Streams a file of any size straight from disk
+        public void put(int indexId, int fileId, String name, Path file, int container) throws IOException {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+                put(indexId, fileId, in, Files.size(file), container, nameHash(name));
+            }
+        }
+        
+        public void remove(int indexId, int fileId) {
+            staged.add(new EntryRef(indexId, fileId, null));
+        }
+        
+        public int size() {
+            return staged.size();
+        }
+        
+        public void commit() throws IOException {
+            lock.writeLock().lock();
+            try {
+                if (!staged.isEmpty() && generation != layoutGeneration) {
+                    staged.clear();
+                    throw new IOException("Cache was relaid out while the batch was open; its entries were discarded");
+                }
+                for (EntryRef change : staged) {
+                    if (change.entry != null) {
+                        indices.computeIfAbsent(change.indexId, id -> new CacheIndex(id, version))
+                            .add(change.entry);
+                        if (feed != null) feed.append(ChangeFeed.PUT, change.indexId, change.fileId, change.entry);
+                    } else {
+                        CacheIndex index = indices.get(change.indexId);
+                        if (index != null && index.remove(change.fileId) != null) {
+                            metrics.removes.increment();
+                            if (feed != null) feed.append(ChangeFeed.REMOVE, change.indexId, change.fileId, null);
+                        }
+                    }
+                }
+                staged.clear();
+                saveIndices();
+                if (feed != null) feed.flush();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        
+        // Uncommitted puts stay behind as dead space in the data file
+        @Override
+        public void close() {
+            staged.clear();
+        }
+    }
+    
+    // Consistent view of all live entries, sorted by archive then file id
+    List<EntryRef> snapshot() {
+        List<EntryRef> refs = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (CacheIndex index : indices.values()) {
+                for (IndexEntry entry : index.entries.values()) {
+                    refs.add(new EntryRef(index.indexId, entry.fileId, entry));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        refs.sort((a, b) -> a.indexId != b.indexId
+            ? Integer.compare(a.indexId, b.indexId) : Integer.compare(a.fileId, b.fileId));
+        return refs;
+    }
+    
+    // Pack format: header, then one frame per live entry in archive/file order, then an end frame.
+    // Frame: type(1) indexId(4) fileId(4) container(4) nameHash(4, v2+) length(8) payload crc32(4)
+    // Patches are packs flagged PACK_FLAG_PATCH that may also hold remove frames: type(1) indexId(4) fileId(4)
+    static final int PACK_MAGIC = 0x4743504B; // "GCPK"
+    static final int PACK_VERSION = 2;
+    static final int PACK_FLAG_DEFLATE = 1;
+    static final int PACK_FLAG_PATCH = 2;
+    private static final int FRAME_END = 0;
+    private static final int FRAME_ENTRY = 1;
+    private static final int FRAME_REMOVE = 2;
+    
+    // Writes the pack header and frames; entries are copied from whichever cache they belong to
+    private static class PackWriter {
+        private final OutputStream out;
+        private final DeflaterOutputStream deflater;
+        private final DataOutputStream frames;
+        private final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        private final ByteBuffer entryHeader = ByteBuffer.allocate(12);
+        private long frameCount;
+        
+        PackWriter(OutputStream out, int flags, int version) throws IOException {
+            this.out = out;
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(PACK_MAGIC);
+            header.writeInt(PACK_VERSION);
+            header.writeInt(flags);
+            header.writeInt(version);
+            header.flush();
+            
+            deflater = (flags & PACK_FLAG_DEFLATE) != 0
+                ? new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), 64 * 1024) : null;
+            frames = new DataOutputStream(
+                new BufferedOutputStream(deflater != null ? deflater : out, 64 * 1024));
+        }
+        
+        void writeEntry(GameCache source, EntryRef ref) throws IOException {
+            IndexEntry entry = ref.entry;
+            frames.writeByte(FRAME_ENTRY);
+            frames.writeInt(ref.indexId);
+            frames.writeInt(ref.fileId);
+            frames.writeInt(entry.container);
+            frames.writeInt(entry.nameHash);
+            frames.writeLong(entry.payloadLength());
+            frames.writeInt(source.copyPayload(ref, frames, chunk, entryHeader));
+            frameCount++;
+        }
+        
+        void writeRemove(int indexId, int fileId) throws IOException {
+            frames.writeByte(FRAME_REMOVE);
+            frames.writeInt(indexId);
+            frames.writeInt(fileId);
+            frameCount++;
+        }
+        
+        long finish() throws IOException {
+            frames.writeByte(FRAME_END);
+            frames.writeLong(frameCount);
+            frames.flush();
+            if (deflater != null) deflater.finish();
+            out.flush();
+            return frameCount;
+        }
+    }
+    
+    // Copies an entry's payload to the pack, verifying each segment against its own header;
+    // returns the CRC of the whole payload for the frame trailer
+    private int copyPayload(EntryRef ref, DataOutputStream frames, ByteBuffer chunk,
+                            ByteBuffer entryHeader) throws IOException {
+        IndexEntry entry = ref.entry;
+        CRC32 crc = new CRC32();
+        CRC32 segmentCrc = CRC.get();
+        long position = entry.dataPosition;
+        long end = position + entry.dataLength;
+        while (position < end) {
+            entryHeader.clear();
+            readFully(entryHeader, position);
+            entryHeader.flip();
+            int length = entryHeader.getInt();
+            int storedCrc = entryHeader.getInt();
+            if (length < 0 || position + 12 + length > end) {
+                throw new IOException("Data length mismatch for file " + ref.fileId);
+            }
+            
+            segmentCrc.reset();
+            long readPosition = position + 12;
+            long remaining = length;
+            while (remaining > 0) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), remaining));
+                int read = dataChannel.read(chunk, readPosition);
+                if (read < 0) throw new EOFException("Data file truncated at file " + ref.fileId);
+                crc.update(chunk.array(), 0, read);
+                segmentCrc.update(chunk.array(), 0, read);
+                frames.write(chunk.array(), 0, read);
+                readPosition += read;
+                remaining -= read;
+            }
+            if ((int) segmentCrc.getValue() != storedCrc) {
+                metrics.crcFailures.increment();
+                throw new IOException("CRC mismatch for file " + ref.fileId + " in archive " + ref.indexId);
+            }
+            position = readPosition;
+        }
+        metrics.bytesRead.add(entry.dataLength);
+        return (int) crc.getValue();
+    }
+    
+    public long exportPack(OutputStream out, boolean compress) throws IOException {
+        PackWriter pack = new PackWriter(out, compress ? PACK_FLAG_DEFLATE : 0, version);
+        layoutLock.readLock().lock();
+        try {
+            for (EntryRef ref : snapshot()) {
+                pack.writeEntry(this, ref);
+            }
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+        return pack.finish();
+    }
+    
+    static class DiffReport {
+        long added;
+        long changed;
+        long removed;
+        long unchanged;
+        long payloadBytes;
+        long elapsedNanos;
+        
+        @Override
+        public String toString() {
+            return String.format("%,d added, %,d changed, %,d removed, %,d unchanged; %s of payload in %d ms",
+                added, changed, removed, unchanged, GameCacheGUI.formatFileSize(payloadBytes),
+                elapsedNanos / 1_000_000);
+        }
+    }
+    
+    // Writes a patch that turns `from` into `to`. Entries are compared by length, payload CRC,
+    // container and name hash from the two indexes, so only added and changed entries are read.
+    public static DiffReport diff(GameCache from, GameCache to, OutputStream out, boolean compress) throws IOException {
+        long start = System.nanoTime();
+        DiffReport report = new DiffReport();
+        PackWriter patch = new PackWriter(out, PACK_FLAG_PATCH | (compress ? PACK_FLAG_DEFLATE : 0), to.version);
+        List<EntryRef> before = from.snapshot();
+        to.layoutLock.readLock().lock();
+        try {
+            List<EntryRef> after = to.snapshot();
+            // Both snapshots are sorted by archive then file, so one merge pass pairs them up
+            int i = 0;
+            int j = 0;
+            while (i < before.size() || j < after.size()) {
+                EntryRef old = i < before.size() ? before.get(i) : null;
+                EntryRef current = j < after.size() ? after.get(j) : null;
+                int order = old == null ? 1 : current == null ? -1
+                    : old.indexId != current.indexId ? Integer.compare(old.indexId, current.indexId)
+                    : Integer.compare(old.fileId, current.fileId);
+                if (order < 0) {
+                    patch.writeRemove(old.indexId, old.fileId);
+                    report.removed++;
+                    i++;
+                } else if (order > 0) {
+                    patch.writeEntry(to, current);
+                    report.added++;
+                    report.payloadBytes += current.entry.payloadLength();
+                    j++;
+                } else {
+                    if (sameContent(old.entry, current.entry)) {
+                        report.unchanged++;
+                    } else {
+                        patch.writeEntry(to, current);
+                        report.changed++;
+                        report.payloadBytes += current.entry.payloadLength();
+                    }
+                    i++;
+                    j++;
+                }
+            }
+        } finally {
+            to.layoutLock.readLock().unlock();
+        }
+        patch.finish();
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+    
+    private static boolean sameContent(IndexEntry a, IndexEntry b) {
+        return a.crc == b.crc && a.payloadLength() == b.payloadLength()
+            && a.container == b.container && a.nameHash == b.nameHash;
+    }
+    
+    // Applies a pack, or a patch written by diff(), through a single batch
+    public long importPack(InputStream in) throws IOException {
+        DataInputStream header = new DataInputStream(in);
+        if (header.readInt() != PACK_MAGIC) throw new IOException("Not a cache pack");
+        int packVersion = header.readInt();
+        if (packVersion > PACK_VERSION) throw new IOException("Unsupported pack version " + packVersion);
+        int flags = header.readInt();
+        header.readInt(); // cache version of the exporting cache
+        
+        InputStream body = (flags & PACK_FLAG_DEFLATE) != 0
+            ? new InflaterInputStream(in, new Inflater(), 64 * 1024) : in;
+        DataInputStream frames = new DataInputStream(new BufferedInputStream(body, 64 * 1024));
+        
+        long imported = 0;
+        try (Batch batch = batch()) {
+            while (true) {
+                int type = frames.readUnsignedByte();
+                if (type == FRAME_END) {
+                    long expected = frames.readLong();
+                    if (expected != imported) {
+                        throw new IOException("Pack declares " + expected + " entries but contained " + imported);
+                    }
+                    break;
+                }
+                if (type == FRAME_REMOVE && (flags & PACK_FLAG_PATCH) != 0) {
+                    batch.remove(frames.readInt(), frames.readInt());
+                    imported++;
+                    continue;
+                }
+                if (type != FRAME_ENTRY) throw new IOException("Corrupt pack: unknown frame type " + type);
+                
+                int indexId = frames.readInt();
+                int fileId = frames.readInt();
+                int container = frames.readInt();
+                int nameHash = packVersion >= 2 ? frames.readInt() : 0;
+                long length = frames.readLong();
+                if (length < 0) throw new IOException("Corrupt pack: negative length for file " + fileId);
+                
+                CheckedInputStream payload = new CheckedInputStream(frames, new CRC32());
+                batch.put(indexId, fileId, payload, length, container, nameHash);
+                if ((int) payload.getChecksum().getValue() != frames.readInt()) {
+                    throw new IOException("CRC mismatch in pack for file " + fileId + " in archive " + indexId);
+                }
+                imported++;
+            }
+            batch.commit();
+        }
+        return imported;
+    }
+    
+    // Relayout writes <dat>.relayout and <idx>.relayout, then creates the commit marker. A cache
+    // opened with the marker present finishes moving the new files into place; without it the
+    // new files are incomplete and are discarded.
+    private static File relayoutFile(File file) {
+        return new File(file.getPath() + ".relayout");
+    }
+    
+    private static File relayoutMarker(File dataFile) {
+        return new File(dataFile.getPath() + ".relayout.commit");
+    }
+    
+    private void recoverRelayout() throws IOException {
+        recoverRelayout(dataFile, indexFile);
+    }
+    
+    private static void recoverRelayout(File dataFile, File indexFile) throws IOException {
+        File newData = relayoutFile(dataFile);
+        File newIndex = relayoutFile(indexFile);
+        File marker = relayoutMarker(dataFile);
+        if (marker.exists()) {
+            if (newData.exists()) {
+                Files.move(newData.toPath(), dataFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            if (newIndex.exists()) {
+                Files.move(newIndex.toPath(), indexFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.delete(marker.toPath());
+        } else {
+            Files.deleteIfExists(newData.toPath());
+            Files.deleteIfExists(newIndex.toPath());
+        }
+    }
+    
+    static class RelayoutReport {
+        int entries;
+        long bytesBefore;
+        long bytesAfter;
+        long reads;
+        boolean fromTrace;
+        long seeksBefore;
+        long seeksAfter;
+        long readAheadMissesBefore;
+        long readAheadMissesAfter;
+        long elapsedNanos;
+        
+        @Override
+        public String toString() {
+            return String.format("Relaid out %,d entries in %d ms by %s; data file %s -> %s%n"
+                    + "Expected over %,d reads: seeks %,d -> %,d, read-ahead misses %,d -> %,d",
+                entries, elapsedNanos / 1_000_000, fromTrace ? "trace co-access" : "archive/file order",
+                GameCacheGUI.formatFileSize(bytesBefore), GameCacheGUI.formatFileSize(bytesAfter),
+                reads, seeksBefore, seeksAfter, readAheadMissesBefore, readAheadMissesAfter);
+        }
+    }
+    
+    private static long entryKey(int indexId, int fileId) {
+        return ((long) indexId << 32) | (fileId & 0xFFFFFFFFL);
+    }
+    
+    // Rewrites the data file so entries read together sit next to each other: in co-access order
+    // from a recorded trace, or in archive/file order when tracePath is null. Dead space from
+    // replaced and removed entries is dropped. Reads and writes wait until it finishes.
+    public RelayoutReport relayout(Path tracePath) throws IOException {
+        long start = System.nanoTime();
+        RelayoutReport report = new RelayoutReport();
+        report.fromTrace = tracePath != null;
+        
+        // Reading the trace can take a while, so it happens before the cache is locked
+        long[] reads = null;
+        Map<Long, Integer> rank = new HashMap<>();
+        if (tracePath != null) {
+            LongArrayBuilder gets = new LongArrayBuilder();
+            AccessTrace.read(tracePath, (time, op, indexId, fileId, latency) -> {
+                if (op == AccessTrace.OP_GET) gets.add(entryKey(indexId, fileId));
+            });
+            reads = gets.toArray();
+            long[] order = coAccessOrder(reads);
+            for (int i = 0; i < order.length; i++) rank.put(order[i], i);
+        }
+        
+        File newData = relayoutFile(dataFile);
+        File newIndex = relayoutFile(indexFile);
+        layoutLock.writeLock().lock();
+        lock.writeLock().lock();
+        try {
+            // Traced entries first in trace order, then everything else in archive/file order
+            List<EntryRef> refs = snapshot();
+            refs.sort((a, b) -> Integer.compare(
+                rank.getOrDefault(entryKey(a.indexId, a.fileId), Integer.MAX_VALUE),
+                rank.getOrDefault(entryKey(b.indexId, b.fileId), Integer.MAX_VALUE)));
+            if (reads == null) {
+                reads = new long[refs.size()];
+                for (int i = 0; i < reads.length; i++) reads[i] = entryKey(refs.get(i).indexId, refs.get(i).fileId);
+            }
+            
+            Map<Integer, CacheIndex> relaid = new HashMap<>();
+            for (CacheIndex index : indices.values()) {
+                relaid.put(index.indexId, new CacheIndex(index.indexId, index.protocol));
+            }
+            Map<Long, IndexEntry> before = new HashMap<>();
+            Map<Long, IndexEntry> after = new HashMap<>();
+            try {
+                try (FileChannel out = FileChannel.open(newData.toPath(), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    for (EntryRef ref : refs) {
+                        IndexEntry old = ref.entry;
+                        // Segment headers hold no positions, so entries are copied verbatim
+                        long copied = 0;
+                        while (copied < old.dataLength) {
+                            long n = dataChannel.transferTo(old.dataPosition + copied, old.dataLength - copied, out);
+                            if (n <= 0) throw new EOFException("Data file truncated at file " + ref.fileId);
+                            copied += n;
+                        }
+                        IndexEntry moved = new IndexEntry();
+                        moved.fileId = old.fileId;
+                        moved.dataPosition = position;
+                        moved.dataLength = old.dataLength;
+                        moved.sector = position / 512;
+                        moved.container = old.container;
+                        moved.nameHash = old.nameHash;
+                        moved.crc = old.crc;
+                        relaid.get(ref.indexId).add(moved);
+                        long key = entryKey(ref.indexId, ref.fileId);
+                        before.put(key, old);
+                        after.put(key, moved);
+                        position += old.dataLength;
+                    }
+                    out.force(true);
+                    report.bytesAfter = position;
+                }
+                writeIndices(relaid, newIndex);
+                try (FileChannel index = FileChannel.open(newIndex.toPath(), StandardOpenOption.WRITE)) {
+                    index.force(true);
+                }
+                createMarker(relayoutMarker(dataFile));
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(newData.toPath());
+                Files.deleteIfExists(newIndex.toPath());
+                throw e;
+            }
+            
+            // Committed: from here a crash is rolled forward on the next open
+            report.bytesBefore = dataChannel.size();
+            dataRaf.close();
+            try {
+                recoverRelayout();
+            } finally {
+                dataRaf = new RandomAccessFile(dataFile, "rw");
+                dataChannel = dataRaf.getChannel();
+            }
+            dataEnd.set(dataChannel.size());
+            indices.clear();
+            indices.putAll(relaid);
+            layoutGeneration++;
+            // Followers hold positions into the old file and have to be re-seeded
+            if (feed != null) feed.reset();
+            
+            report.entries = refs.size();
+            report.reads = reads.length;
+            long[] estimate = estimateReads(reads, before);
+            report.seeksBefore = estimate[0];
+            report.readAheadMissesBefore = estimate[1];
+            estimate = estimateReads(reads, after);
+            report.seeksAfter = estimate[0];
+            report.readAheadMissesAfter = estimate[1];
+        } finally {
+            lock.writeLock().unlock();
+            layoutLock.writeLock().unlock();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+    
+    // Greedy chaining: starting from keys in first-access order, repeatedly place the most frequent
+    // not yet placed successor of the last placed key
+    private static long[] coAccessOrder(long[] reads) {
+        Map<Long, Map<Long, Integer>> successors = new LinkedHashMap<>();
+        for (int i = 0; i < reads.length; i++) {
+            successors.computeIfAbsent(reads[i], k -> new HashMap<>());
+            if (i > 0 && reads[i - 1] != reads[i]) {
+                successors.get(reads[i - 1]).merge(reads[i], 1, Integer::sum);
+            }
+        }
+        
+        Set<Long> placed = new HashSet<>();
+        long[] order = new long[successors.size()];
+        int count = 0;
+        for (Long first : successors.keySet()) {
+            Long current = first;
+            while (current != null && placed.add(current)) {
+                order[count++] = current;
+                Long next = null;
+                int best = 0;
+                for (Map.Entry<Long, Integer> candidate : successors.get(current).entrySet()) {
+                    if (candidate.getValue() > best && !placed.contains(candidate.getKey())) {
+                        next = candidate.getKey();
+                        best = candidate.getValue();
+                    }
+                }
+                current = next;
+            }
+        }
+        return order;
+    }
+    
+    private static final long READ_AHEAD = 128 * 1024;
+    
+    // Replays a read sequence against a layout: a seek is a read not starting where the previous
+    // one ended, a read-ahead miss is one not inside the window that follows the previous read
+    private static long[] estimateReads(long[] reads, Map<Long, IndexEntry> layout) {
+        long seeks = 0;
+        long misses = 0;
+        long previousEnd = -1;
+        long previousKey = -1;
+        for (long key : reads) {
+            IndexEntry entry = layout.get(key);
+            // A repeated read of the same entry is served from the page cache
+            if (entry == null || key == previousKey) continue;
+            previousKey = key;
+            if (entry.dataPosition != previousEnd) seeks++;
+            if (entry.dataPosition < previousEnd || entry.dataPosition + entry.dataLength > previousEnd + READ_AHEAD) {
+                misses++;
+            }
+            previousEnd = entry.dataPosition + entry.dataLength;
+        }
+        return new long[]{seeks, misses};
+    }
+    
+    private static void createMarker(File marker) throws IOException {
+        try (FileChannel channel = FileChannel.open(marker.toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+    
+    private static void force(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+    
+    static class BackupReport {
+        int entries;
+        long dataLength;
+        long bytesCopied;
+        boolean incremental;
+        long elapsedNanos;
+        
+        @Override
+        public String toString() {
+            return String.format("%s backup of %,d entries: %s of data, %s copied in %d ms",
+                incremental ? "Incremental" : "Full", entries, GameCacheGUI.formatFileSize(dataLength),
+                GameCacheGUI.formatFileSize(bytesCopied), elapsedNanos / 1_000_000);
+        }
+    }
+    
+    // Point-in-time copy to <target>.dat / <target>.idx while writers keep appending. The data file
+    // is append-only, so the committed index plus the end of its last entry is a consistent
+    // snapshot. If the target already holds an earlier backup whose data still matches every live
+    // entry it covers, only the bytes appended since are copied.
+    public BackupReport backup(String targetBasePath) throws IOException {
+        long start = System.nanoTime();
+        BackupReport report = new BackupReport();
+        File targetData = new File(targetBasePath + ".dat");
+        File targetIndex = new File(targetBasePath + ".idx");
+        
+        // The layout read lock keeps relayout from swapping the file mid-copy; appends carry on
+        layoutLock.readLock().lock();
+        try {
+            Map<Integer, CacheIndex> frozen = new HashMap<>();
+            long length = 0;
+            lock.readLock().lock();
+            try {
+                // Entries are never modified once published, so copying the references is enough
+                for (CacheIndex index : indices.values()) {
+                    CacheIndex copy = new CacheIndex(index.indexId, index.protocol);
+                    for (IndexEntry entry : index.entries.values()) {
+                        copy.entries.put(entry.fileId, entry);
+                        length = Math.max(length, entry.dataPosition + entry.dataLength);
+                    }
+                    frozen.put(index.indexId, copy);
+                    report.entries += copy.entries.size();
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            report.dataLength = length;
+            
+            long from = reusablePrefix(targetData, targetIndex, frozen, length) ? targetData.length() : 0;
+            report.incremental = from > 0;
+            File dataOut = report.incremental ? targetData : new File(targetData.getPath() + ".tmp");
+            try (FileChannel out = FileChannel.open(dataOut.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                out.truncate(from);
+                long position = from;
+                while (position < length) {
+                    long n = dataChannel.transferTo(position, length - position, out.position(position));
+                    if (n <= 0) throw new EOFException("Data file truncated at position " + position);
+                    position += n;
+                }
+                out.force(true);
+            }
+            report.bytesCopied = length - from;
+            if (!report.incremental) {
+                // Without its index a half-replaced backup cannot be mistaken for a valid one
+                Files.deleteIfExists(targetIndex.toPath());
+                Files.move(dataOut.toPath(), targetData.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            
+            // The index goes last, so a backup's index never refers to data it does not have
+            File indexOut = new File(targetIndex.getPath() + ".tmp");
+            writeIndices(frozen, indexOut);
+            force(indexOut);
+            Files.move(indexOut.toPath(), targetIndex.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+    
+    private static final int BACKUP_PROBE = 64 * 1024;
+    
+    // Whether an earlier backup can stand in for the start of the live data file. Every live entry
+    // inside it must be listed in the backup's index at the same position with the same length and
+    // payload CRC, or else have identical bytes in both files. A relayout or restore moves entries,
+    // so the byte comparisons stop once they would cost more than an eighth of the prefix and the
+    // backup is copied in full instead.
+    private boolean reusablePrefix(File previous, File previousIndex, Map<Integer, CacheIndex> live,
+                                   long length) throws IOException {
+        long previousLength = previous.length();
+        if (!previous.exists() || previousLength == 0 || previousLength > length) return false;
+        Map<Long, IndexEntry> backedUp = readBackupEntries(previousIndex);
+        if (backedUp == null) return false;
+        List<IndexEntry> unmatched = new ArrayList<>();
+        long unmatchedBytes = 0;
+        for (CacheIndex index : live.values()) {
+            for (IndexEntry entry : index.entries.values()) {
+                long end = entry.dataPosition + entry.dataLength;
+                if (entry.dataPosition >= previousLength) continue;
+                if (end > previousLength) return false;
+                IndexEntry old = backedUp.get(entry.dataPosition);
+                if (old != null && old.dataLength == entry.dataLength && old.crc == entry.crc) continue;
+                unmatched.add(entry);
+                unmatchedBytes += entry.dataLength;
+                if (unmatchedBytes > previousLength / 8) return false;
+            }
+        }
+        try (FileChannel in = FileChannel.open(previous.toPath(), StandardOpenOption.READ)) {
+            for (IndexEntry entry : unmatched) {
+                long end = entry.dataPosition + entry.dataLength;
+                for (long from = entry.dataPosition; from < end; from += BACKUP_PROBE) {
+                    if (!sameBlock(in, from, Math.min(end, from + BACKUP_PROBE))) return false;
+                }
+            }
+        }
+        return true;
+    }
+    
+    // Entries of a backup index by data position; null when it is missing or not in the current format
+    private static Map<Long, IndexEntry> readBackupEntries(File file) throws IOException {
+        if (!file.isFile()) return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_FORMAT) return null;
+            Map<Long, IndexEntry> entries = new HashMap<>();
+            while (true) {
+                try {
+                    in.readInt(); // index id
+                } catch (EOFException e) {
+                    return entries;
+                }
+                in.readInt(); // protocol
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    IndexEntry entry = new IndexEntry();
+                    entry.fileId = in.readInt();
+                    entry.dataPosition = in.readLong();
+                    entry.dataLength = in.readLong();
+                    entry.sector = in.readLong();
+                    entry.container = in.readInt();
+                    entry.nameHash = in.readInt();
+                    entry.crc = in.readInt();
+                    entries.put(entry.dataPosition, entry);
+                }
+            }
+        } catch (EOFException e) {
+            return null; // truncated
+        }
+    }
+    
+    private boolean sameBlock(FileChannel other, long from, long to) throws IOException {
+        ByteBuffer theirs = ByteBuffer.allocate((int) (to - from));
+        ByteBuffer ours = ByteBuffer.allocate((int) (to - from));
+        while (theirs.hasRemaining()) {
+            if (other.read(theirs, from + theirs.position()) < 0) return false;
+        }
+        readFully(ours, from);
+        theirs.flip();
+        ours.flip();
+        return theirs.equals(ours);
+    }
+    
+    static class VerifyReport {
+        final AtomicLong entries = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final Queue<String> failures = new ConcurrentLinkedQueue<>();
+        long elapsedNanos;
+        
+        @Override
+        public String toString() {
+            return String.format("Verified %,d entries (%s) in %d ms, %d failed%s",
+                entries.get(), GameCacheGUI.formatFileSize(bytes.get()), elapsedNanos / 1_000_000,
+                failures.size(), failures.isEmpty() ? "" : ": " + String.join(", ", failures));
+        }
+    }
+    
+    // Checks every segment CRC of every live entry. Entries are split into contiguous ranges of the
+    // data file, one per thread, so each thread reads sequentially.
+    public VerifyReport verify(int threads) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        VerifyReport report = new VerifyReport();
+        layoutLock.readLock().lock();
+        try {
+            List<EntryRef> refs = snapshot();
+            refs.sort((a, b) -> Long.compare(a.entry.dataPosition, b.entry.dataPosition));
+            Thread[] workers = new Thread[Math.max(1, Math.min(threads, refs.size()))];
+            for (int t = 0; t < workers.length; t++) {
+                List<EntryRef> range = refs.subList(refs.size() * t / workers.length,
+                    refs.size() * (t + 1) / workers.length);
+                workers[t] = new Thread(() -> {
+                    ByteBuffer chunk = BUFFERS.acquire(1 << 20);
+                    try {
+                        for (EntryRef ref : range) {
+                            try {
+                                if (payloadCrc(ref.entry, chunk) != ref.entry.crc) {
+                                    throw new IOException("Index CRC mismatch");
+                                }
+                                report.bytes.addAndGet(ref.entry.dataLength);
+                            } catch (IOException e) {
+                                report.failures.add(ref.indexId + "/" + ref.fileId);
+                            }
+                            report.entries.incrementAndGet();
+                        }
+                    } finally {
+                        BUFFERS.release(chunk);
+                    }
+                }, "cache-verify-" + t);
+                workers[t].start();
+            }
+            for (Thread worker : workers) worker.join();
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+    
+    // Checks each segment against its header CRC; returns the CRC of the whole payload
+    private int payloadCrc(IndexEntry entry, ByteBuffer chunk) throws IOException {
+        CRC32 payloadCrc = new CRC32();
+        long position = entry.dataPosition;
+        long end = position + entry.dataLength;
+        while (position < end) {
+            int length = readSegmentHeader(entry, position, end);
+            int storedCrc = IO_BUFFERS.get().header.getInt(4);
+            CRC32 crc = CRC.get();
+            crc.reset();
+            long readPosition = position + 12;
+            long remaining = length;
+            while (remaining > 0) {
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), remaining));
+                readFully(chunk, readPosition);
+                chunk.flip();
+                crc.update(chunk);
+                chunk.rewind();
+                payloadCrc.update(chunk);
+                readPosition += chunk.limit();
+                remaining -= chunk.limit();
+            }
+            verifySegment(entry, storedCrc, crc);
+            position = readPosition;
+        }
+        return (int) payloadCrc.getValue();
+    }
+    
+    // Verifies a backup in parallel, then installs it over the (closed) cache at cacheBasePath.
+    // The files are staged like a relayout and committed with its marker, so an interrupted
+    // restore is finished by the next open.
+    public static VerifyReport restore(String backupBasePath, String cacheBasePath, int version,
+                                       int threads) throws IOException, InterruptedException {
+        if (!new File(backupBasePath + ".dat").isFile() || !new File(backupBasePath + ".idx").isFile()) {
+            throw new FileNotFoundException("No backup at " + backupBasePath);
+        }
+        VerifyReport report;
+        GameCache backup = new GameCache(backupBasePath, version);
+        try {
+            report = backup.verify(threads);
+        } finally {
+            backup.close();
+        }
+        if (!report.failures.isEmpty()) throw new IOException("Backup is corrupt: " + report);
+        
+        File dataFile = new File(cacheBasePath + ".dat");
+        File indexFile = new File(cacheBasePath + ".idx");
+        Files.copy(Paths.get(backupBasePath + ".dat"), relayoutFile(dataFile).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(Paths.get(backupBasePath + ".idx"), relayoutFile(indexFile).toPath(),
+            StandardCopyOption.REPLACE_EXISTING);
+        force(relayoutFile(dataFile));
+        force(relayoutFile(indexFile));
+        createMarker(relayoutMarker(dataFile));
+        recoverRelayout(dataFile, indexFile);
+        ChangeFeed.resetIfPresent(Paths.get(cacheBasePath + ".feed"));
+        // A restored follower starts over on the leader's current feed
+        Files.deleteIfExists(Paths.get(cacheBasePath + ".feedpos"));
+        return report;
+    }
+    
+    // Writes an immutable copy for read-only use with FrozenGameCache: a minimal perfect hash over
+    // (indexId, fileId), a fixed-size slot per entry and the payloads without segment headers,
+    // kept in data file order. Payloads of 4 KB or more start on a 4 KB boundary.
+    public long freeze(Path target) throws IOException {
+        layoutLock.readLock().lock();
+        try {
+            List<EntryRef> refs = snapshot();
+            int n = refs.size();
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i++) keys[i] = entryKey(refs.get(i).indexId, refs.get(i).fileId);
+            FrozenGameCache.PerfectHash hash = FrozenGameCache.PerfectHash.build(keys);
+            
+            long bucketsOffset = FrozenGameCache.PAGE;
+            long slotsOffset = bucketsOffset + 4L * hash.displacements.length;
+            slotsOffset = (slotsOffset + 7) & ~7L;
+            long dataOffset = FrozenGameCache.align(slotsOffset + (long) FrozenGameCache.SLOT_SIZE * n);
+            
+            // Payload offsets follow the data file order, so relayout locality carries over
+            Integer[] byPosition = new Integer[n];
+            for (int i = 0; i < n; i++) byPosition[i] = i;
+            Arrays.sort(byPosition, (a, b) -> Long.compare(refs.get(a).entry.dataPosition, refs.get(b).entry.dataPosition));
+            long[] offsets = new long[n];
+            long position = dataOffset;
+            for (int i : byPosition) {
+                long length = refs.get(i).entry.payloadLength();
+                if (length >= FrozenGameCache.PAGE) position = FrozenGameCache.align(position);
+                offsets[i] = position;
+                position += length;
+            }
+            long fileLength = position;
+            
+            File temp = new File(target.toString() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(FrozenGameCache.HEADER_SIZE);
+                header.putInt(FrozenGameCache.MAGIC);
+                header.putInt(FrozenGameCache.FORMAT);
+                header.putInt(version);
+                header.putInt(n);
+                header.putInt(hash.displacements.length);
+                header.putInt(0);
+                header.putLong(hash.seed);
+                header.putLong(bucketsOffset);
+                header.putLong(slotsOffset);
+                header.putLong(dataOffset);
+                header.putLong(fileLength);
+                header.flip();
+                writeFully(out, header, 0);
+                
+                ByteBuffer table = ByteBuffer.allocate(64 * 1024);
+                long tablePosition = bucketsOffset;
+                for (int displacement : hash.displacements) {
+                    if (table.remaining() < 4) tablePosition = flushTable(out, table, tablePosition);
+                    table.putInt(displacement);
+                }
+                flushTable(out, table, tablePosition);
+                
+                int[] entryAtSlot = new int[n];
+                for (int i = 0; i < n; i++) entryAtSlot[hash.slot(keys[i])] = i;
+                tablePosition = slotsOffset;
+                for (int slot = 0; slot < n; slot++) {
+                    if (table.remaining() < FrozenGameCache.SLOT_SIZE) tablePosition = flushTable(out, table, tablePosition);
+                    EntryRef ref = refs.get(entryAtSlot[slot]);
+                    table.putInt(ref.indexId);
+                    table.putInt(ref.fileId);
+                    table.putLong(offsets[entryAtSlot[slot]]);
+                    table.putLong(ref.entry.payloadLength());
+                    table.putInt(ref.entry.crc);
+                    table.putInt(ref.entry.container);
+                    table.putInt(ref.entry.nameHash);
+                    table.putInt(0);
+                }
+                flushTable(out, table, tablePosition);
+                
+                // Payloads are copied segment by segment, skipping the 12-byte headers
+                for (int i : byPosition) {
+                    IndexEntry entry = refs.get(i).entry;
+                    long outPosition = offsets[i];
+                    long segment = entry.dataPosition;
+                    long end = segment + entry.dataLength;
+                    while (segment < end) {
+                        int length = readSegmentHeader(entry, segment, end);
+                        long copied = 0;
+                        while (copied < length) {
+                            long count = dataChannel.transferTo(segment + 12 + copied, length - copied,
+                                out.position(outPosition + copied));
+                            if (count <= 0) throw new EOFException("Data file truncated at file " + entry.fileId);
+                            copied += count;
+                        }
+                        outPosition += length;
+                        segment += 12 + length;
+                    }
+                }
+                out.truncate(fileLength);
+                out.force(true);
+            }
+            Files.move(temp.toPath(), target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return n;
+        } finally {
+            layoutLock.readLock().unlock();
+        }
+    }
+    
+    private static long flushTable(FileChannel out, ByteBuffer table, long position) throws IOException {
+        table.flip();
+        int length = table.remaining();
+        writeFully(out, table, position);
+        table.clear();
+        return position + length;
+    }
+    
+    private static void writeFully(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += out.write(buffer, position);
+        }
+    }
+    
+    // Growable long[] so long traces are not boxed
+    private static class LongArrayBuilder {
+        private long[] values = new long[1024];
+        private int size;
+        
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+        
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+    
+    public byte[] get(int indexId, int fileId) throws IOException {
+        long start = System.nanoTime();
+        layoutLock.readLock().lock();
+        try {
+            IndexEntry entry = lookup(indexId, fileId);
+            if (entry == null) return null;
+            
+            long length = entry.payloadLength();
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("File " + fileId + " is " + length + " bytes; too large for a byte[], "
+                    + "use get(indexId, fileId, WritableByteChannel)");
+            }
+            ByteBuffer buffer = BUFFERS.acquire((int) length);
+            try {
+                readPayload(entry, buffer);
+                buffer.flip();
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                return data;
+            } finally {
+                BUFFERS.release(buffer);
+            }
+        } finally {
+            layoutLock.readLock().unlock();
+            recordAccess(AccessTrace.OP_GET, indexId, fileId, start);
+        }
+    }
+    
+    // Allocation-free read into the caller's buffer at its position; returns the payload
+    // length, or -1 if the file is not in the cache
+    public int get(int indexId, int fileId, ByteBuffer dst) throws IOException {
+        long start = System.nanoTime();
+        layoutLock.readLock().lock();
+        try {
+            IndexEntry entry = lookup(indexId, fileId);
+            return entry != null ? readPayload(entry, dst) : -1;
+        } finally {
+            layoutLock.readLock().unlock();
+            recordAccess(AccessTrace.OP_GET, indexId, fileId, start);
+        }
+    }
+    
+    // Streams an entry of any size to the target in bounded chunks, verifying each segment's CRC;
+    // returns the payload length, or -1 if the file is not in the cache
+    public long get(int indexId, int fileId, WritableByteChannel target) throws IOException {
+        long start = System.nanoTime();
+        layoutLock.readLock().lock();
+        try {
+            IndexEntry entry = lookup(indexId, fileId);
+            if (entry == null) return -1;
+            
+            ByteBuffer chunk = BUFFERS.acquire(1 << 20);
+            try {
+                long total = 0;
+                long position = entry.dataPosition;
+                long end = position + entry.dataLength;
+                while (position < end) {
+                    int length = readSegmentHeader(entry, position, end);
+                    int storedCrc = IO_BUFFERS.get().header.getInt(4);
+                    CRC32 crc = CRC.get();
+                    crc.reset();
+                    
+                    long readPosition = position + 12;
+                    long remaining = length;
+                    while (remaining > 0) {
+                        chunk.clear();
+                        chunk.limit((int) Math.min(chunk.capacity(), remaining));
+                        readFully(chunk, readPosition);
+                        chunk.flip();
+                        crc.update(chunk);
+                        chunk.flip();
+                        while (chunk.hasRemaining()) target.write(chunk);
+                        readPosition += chunk.limit();
+                        remaining -= chunk.limit();
+                    }
+                    verifySegment(entry, storedCrc, crc);
+                    total += length;
+                    position = readPosition;
+                }
+                metrics.bytesRead.add(entry.dataLength);
+                return total;
+            } finally {
+                BUFFERS.release(chunk);
+            }
+        } finally {
+            layoutLock.readLock().unlock();
+            recordAccess(AccessTrace.OP_GET, indexId, fileId, start);
+        }
+    }
+    
+    public long getLength(int indexId, int fileId) {
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            IndexEntry entry = index != null ? index.entries.get(fileId) : null;
+            return entry != null ? entry.payloadLength() : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private IndexEntry lookup(int indexId, int fileId) {
+        IndexEntry entry;
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            entry = index != null ? index.entries.get(fileId) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (entry == null) {
+            metrics.misses.increment();
+        } else {
+            metrics.hits.increment();
+        }
+        return entry;
+    }
+    
+    private int readPayload(IndexEntry entry, ByteBuffer dst) throws IOException {
+        long payloadLength = entry.payloadLength();
+        if (dst.remaining() < payloadLength) {
+            throw new IOException("Buffer too small for file " + entry.fileId + ": need " + payloadLength + " bytes");
+        }
+        
+        int total = 0;
+        long position = entry.dataPosition;
+        long end = position + entry.dataLength;
+        while (position < end) {
+            int length = readSegmentHeader(entry, position, end);
+            int storedCrc = IO_BUFFERS.get().header.getInt(4);
+            
+            int start = dst.position();
+            int limit = dst.limit();
+            dst.limit(start + length);
+            readFully(dst, position + 12);
+            
+            // Verify CRC over exactly the bytes just read, leaving dst positioned after them
+            dst.position(start);
+            CRC32 crc = CRC.get();
+            crc.reset();
+            crc.update(dst);
+            dst.limit(limit);
+            verifySegment(entry, storedCrc, crc);
+            
+            total += length;
+            position += 12 + length;
+        }
+        metrics.bytesRead.add(entry.dataLength);
+        return total;
+    }
+    
+    // Reads the segment header at position into the thread's header buffer; returns its length
+    private int readSegmentHeader(IndexEntry entry, long position, long end) throws IOException {
+        ByteBuffer header = IO_BUFFERS.get().header;
+        header.clear();
+        readFully(header, position);
+        int length = header.getInt(0);
+        if (length < 0 || position + 12 + length > end) {
+            throw new IOException("Data length mismatch for file " + entry.fileId);
+        }
+        return length;
+    }
+    
+    private void verifySegment(IndexEntry entry, int storedCrc, CRC32 crc) throws IOException {
+        if (storedCrc != (int) crc.getValue()) {
+            metrics.crcFailures.increment();
+            throw new IOException("CRC mismatch for file " + entry.fileId);
+        }
+    }
+    
+    public boolean remove(int indexId, int fileId) throws IOException {
+        long start = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            if (index == null) return false;
+            
+            IndexEntry removed = index.remove(fileId);
+            if (removed != null) {
+                saveIndices();
+                if (feed != null) {
+                    feed.append(ChangeFeed.REMOVE, indexId, fileId, null);
+                    feed.flush();
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+            recordAccess(AccessTrace.OP_REMOVE, indexId, fileId, start);
+        }
+    }
+    
+    // O(1) lookup through the archive's name-hash index
+    public byte[] getByName(int indexId, String name) throws IOException {
+        int fileId = getFileId(indexId, name);
+        return fileId >= 0 ? get(indexId, fileId) : null;
+    }
+    
+    public int getFileId(int indexId, String name) {
+        int hash = nameHash(name);
+        if (hash == 0) return -1;
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            return index != null ? index.names.get(hash) : -1;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getFileCount(int indexId) {
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            return index != null ? index.entries.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public boolean contains(int indexId, int fileId) {
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            return index != null && index.entries.containsKey(fileId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public IndexEntry getEntry(int indexId, int fileId) {
+        lock.readLock().lock();
+        try {
+            CacheIndex index = indices.get(indexId);
+            return index != null ? index.entries.get(fileId) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    interface EntryVisitor {
+        void visit(int indexId, IndexEntry entry);
+    }
+    
+    // Visits every live entry under the read lock without copying; returns the entry count
+    public int forEachEntry(EntryVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (CacheIndex index : indices.values()) {
+                for (IndexEntry entry : index.entries.values()) {
+                    visitor.visit(index.indexId, entry);
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getEntryCount() {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (CacheIndex index : indices.values()) count += index.entries.size();
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    // An entry read by scan(). The payload view is reused for the next entry of the same split,
+    // so copy it if it must outlive the consumer call.
+    static class EntryData {
+        final int indexId;
+        final IndexEntry entry;
+        final ByteBuffer payload;
+        
+        EntryData(int indexId, IndexEntry entry, ByteBuffer payload) {
+            this.indexId = indexId;
+            this.entry = entry;
+            this.payload = payload;
+        }
+    }
+    
+    // Metadata of all live entries in data file order. Parallel streams split it into contiguous
+    // byte ranges of the data file.
+    public Stream<EntryRef> stream() {
+        return StreamSupport.stream(new MetadataSpliterator(positionSnapshot(), null, layoutGeneration), false);
+    }
+    
+    // Payloads of the entries accepted by filter, in data file order. Only matching entries are
+    // read, and each split reads its range sequentially with one reused buffer.
+    public Stream<EntryData> scan(Predicate<EntryRef> filter) {
+        return StreamSupport.stream(new PayloadSpliterator(positionSnapshot(), filter, layoutGeneration), false);
+    }
+    
+    private EntryRef[] positionSnapshot() {
+        EntryRef[] refs = snapshot().toArray(new EntryRef[0]);
+        Arrays.sort(refs, (a, b) -> Long.compare(a.entry.dataPosition, b.entry.dataPosition));
+        return refs;
+    }
+    
+    private abstract class RangeSpliterator<T> implements Spliterator<T> {
+        private static final int MIN_SPLIT = 64;
+        
+        final EntryRef[] refs;
+        final Predicate<EntryRef> filter;
+        final int generation;
+        int from;
+        final int to;
+        
+        RangeSpliterator(EntryRef[] refs, Predicate<EntryRef> filter, int generation, int from, int to) {
+            this.refs = refs;
+            this.filter = filter;
+            this.generation = generation;
+            this.from = from;
+            this.to = to;
+        }
+        
+        abstract T load(EntryRef ref);
+        
+        abstract RangeSpliterator<T> split(int from, int to);
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (from < to) {
+                EntryRef ref = refs[from++];
+                if (filter == null || filter.test(ref)) {
+                    action.accept(load(ref));
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        // Splits at the middle byte of the range rather than the middle entry, so both halves
+        // read about the same amount of data
+        @Override
+        public Spliterator<T> trySplit() {
+            if (to - from < 2 * MIN_SPLIT) return null;
+            long low = refs[from].entry.dataPosition;
+            long high = refs[to - 1].entry.dataPosition + refs[to - 1].entry.dataLength;
+            long middle = low + (high - low) / 2;
+            int lo = from;
+            int hi = to;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (refs[mid].entry.dataPosition < middle) lo = mid + 1; else hi = mid;
+            }
+            int split = Math.max(from + MIN_SPLIT, Math.min(to - MIN_SPLIT, lo));
+            Spliterator<T> prefix = split(from, split);
+            from = split;
+            return prefix;
+        }
+        
+        @Override
+        public long estimateSize() {
+            return to - from;
+        }
+        
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE | (filter == null ? SIZED | SUBSIZED : 0);
+        }
+    }
+    
+    private class MetadataSpliterator extends RangeSpliterator<EntryRef> {
+        MetadataSpliterator(EntryRef[] refs, Predicate<EntryRef> filter, int generation) {
+            this(refs, filter, generation, 0, refs.length);
+        }
+        
+        private MetadataSpliterator(EntryRef[] refs, Predicate<EntryRef> filter, int generation, int from, int to) {
+            super(refs, filter, generation, from, to);
+        }
+        
+        @Override
+        RangeSpliterator<EntryRef> split(int from, int to) {
+            return new MetadataSpliterator(refs, filter, generation, from, to);
+        }
+        
+        @Override
+        EntryRef load(EntryRef ref) {
+            return ref;
+        }
+    }
+    
+    private class PayloadSpliterator extends RangeSpliterator<EntryData> {
+        private ByteBuffer buffer;
+        
+        PayloadSpliterator(EntryRef[] refs, Predicate<EntryRef> filter, int generation) {
+            this(refs, filter, generation, 0, refs.length);
+        }
+        
+        private PayloadSpliterator(EntryRef[] refs, Predicate<EntryRef> filter, int generation, int from, int to) {
+            super(refs, filter, generation, from, to);
+        }
+        
+        @Override
+        RangeSpliterator<EntryData> split(int from, int to) {
+            return new PayloadSpliterator(refs, filter, generation, from, to);
+        }
+        
+        @Override
+        EntryData load(EntryRef ref) {
+            long length = ref.entry.payloadLength();
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new UncheckedIOException(new IOException("File " + ref.fileId + " is too large to scan"));
+            }
+            if (buffer == null || buffer.capacity() < length) {
+                buffer = ByteBuffer.allocate((int) Math.max(length, 64 * 1024));
+            }
+            buffer.clear();
+            layoutLock.readLock().lock();
+            try {
+                // Positions in the snapshot are only valid for the layout it was taken from
+                if (generation != layoutGeneration) {
+                    throw new ConcurrentModificationException("Cache was relaid out during the scan");
+                }
+                readPayload(ref.entry, buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                layoutLock.readLock().unlock();
+            }
+            buffer.flip();
+            return new EntryData(ref.indexId, ref.entry, buffer.asReadOnlyBuffer());
+        }
     }
     
     public Map<Integer, CacheIndex> getIndices() {
         return Collections.unmodifiableMap(indices);
     }
+    
+    // Counts the operation in the metrics and, when a trace is being recorded, appends it there
+    private void recordAccess(byte op, int indexId, int fileId, long startNanos) {
+        long elapsed = System.nanoTime() - startNanos;
+        switch (op) {
+            case AccessTrace.OP_GET:
+                metrics.gets.increment();
+                metrics.getLatency.record(elapsed);
+                break;
+            case AccessTrace.OP_PUT:
+                metrics.puts.increment();
+                metrics.putLatency.record(elapsed);
+                break;
+            default:
+                metrics.removes.increment();
+                metrics.removeLatency.record(elapsed);
+                break;
+        }
+        AccessTrace recorder = trace;
+        if (recorder != null) recorder.record(op, indexId, fileId, startNanos, elapsed);
+    }
+    
+    public synchronized void startTrace(Path path) throws IOException {
+        stopTrace();
+        trace = new AccessTrace(path);
+    }
+    
+    public synchronized void stopTrace() throws IOException {
+        AccessTrace recorder = trace;
+        trace = null;
+        if (recorder != null) recorder.close();
+    }
+    
+    public boolean isTracing() {
+        return trace != null;
+    }
+    
+    // Starts publishing committed changes to <base>.feed for CacheFollower; stays on for later opens
+    public void enableChangeFeed() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (feed == null) feed = new ChangeFeed(feedPath);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public CacheMetrics getMetrics() {
+        return metrics;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        stopTrace();
+        metrics.unregister();
+        if (feed != null) feed.close();
+        dataRaf.close();
+    }
+}
+
+
+// Lock-free latency histogram (HdrHistogram-style log-linear buckets, ~3% precision)
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    
+    private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(bucketFor(nanos));
+        totalCount.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+    
+    private static int bucketFor(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+    
+    // Highest value that falls into the given bucket
+    private static long upperBound(int bucket) {
+        int group = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        if (group == 0) return sub;
+        int shift = group - 1;
+        return ((long) (SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+    
+    long count() {
+        return totalCount.sum();
+    }
+    
+    long max() {
+        return maxNanos.get();
+    }
+    
+    double mean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : (double) totalNanos.sum() / count;
+    }
+    
+    // Value at the given percentile (0-100); recording may continue concurrently
+    long percentile(double percentile) {
+        long count = totalCount.sum();
+        if (count == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) return Math.min(upperBound(i), max());
+        }
+        return max();
+    }
+    
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+        totalCount.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+}
+
+// Hot-path counters for a GameCache, published over JMX as GameCache:type=CacheMetrics
+class CacheMetrics implements DynamicMBean {
+    final LongAdder gets = new LongAdder();
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder puts = new LongAdder();
+    final LongAdder removes = new LongAdder();
+    final LongAdder indexLoads = new LongAdder();
+    final LongAdder indexSaves = new LongAdder();
+    final LongAdder bytesRead = new LongAdder();
+    final LongAdder bytesWritten = new LongAdder();
+    final LongAdder crcFailures = new LongAdder();
+    
+    final LatencyHistogram getLatency = new LatencyHistogram();
+    final LatencyHistogram putLatency = new LatencyHistogram();
+    final LatencyHistogram removeLatency = new LatencyHistogram();
+    final LatencyHistogram loadLatency = new LatencyHistogram();
+    final LatencyHistogram saveLatency = new LatencyHistogram();
+    
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+    private ObjectName objectName;
+    // Which instance currently holds each name, so closing a superseded cache leaves its replacement alone
+    private static final Map<ObjectName, CacheMetrics> OWNERS = new HashMap<>();
+    
+    CacheMetrics() {
+        attributes.put("GetCount", gets::sum);
+        attributes.put("HitCount", hits::sum);
+        attributes.put("MissCount", misses::sum);
+        attributes.put("HitRatio", this::hitRatio);
+        attributes.put("PutCount", puts::sum);
+        attributes.put("RemoveCount", removes::sum);
+        attributes.put("IndexLoadCount", indexLoads::sum);
+        attributes.put("IndexSaveCount", indexSaves::sum);
+        attributes.put("BytesRead", bytesRead::sum);
+        attributes.put("BytesWritten", bytesWritten::sum);
+        attributes.put("CrcFailures", crcFailures::sum);
+        addLatencyAttributes("Get", getLatency);
+        addLatencyAttributes("Put", putLatency);
+        addLatencyAttributes("Remove", removeLatency);
+        addLatencyAttributes("LoadIndices", loadLatency);
+        addLatencyAttributes("SaveIndices", saveLatency);
+    }
+    
+    private void addLatencyAttributes(String op, LatencyHistogram histogram) {
+        attributes.put(op + "MeanMicros", () -> histogram.mean() / 1000.0);
+        attributes.put(op + "P50Micros", () -> histogram.percentile(50) / 1000.0);
+        attributes.put(op + "P99Micros", () -> histogram.percentile(99) / 1000.0);
+        attributes.put(op + "MaxMicros", () -> histogram.max() / 1000.0);
+    }
+    
+    double hitRatio() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+    
+    void reset() {
+        for (LongAdder adder : new LongAdder[]{gets, hits, misses, puts, removes, indexLoads,
+                indexSaves, bytesRead, bytesWritten, crcFailures}) {
+            adder.reset();
+        }
+        for (LatencyHistogram histogram : new LatencyHistogram[]{getLatency, putLatency,
+                removeLatency, loadLatency, saveLatency}) {
+            histogram.reset();
+        }
+    }
+    
+    void register(String cacheName) {
+        synchronized (OWNERS) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName("GameCache:type=CacheMetrics,name=" + ObjectName.quote(cacheName));
+                // A rebuilt cache replaces the metrics of the instance it superseded
+                if (server.isRegistered(name)) server.unregisterMBean(name);
+                server.registerMBean(this, name);
+                OWNERS.put(name, this);
+                objectName = name;
+            } catch (JMException e) {
+                System.err.println("Could not register cache metrics: " + e.getMessage());
+            }
+        }
+    }
+    
+    void unregister() {
+        synchronized (OWNERS) {
+            if (objectName == null) return;
+            ObjectName name = objectName;
+            objectName = null;
+            if (OWNERS.get(name) != this) return; // a newer cache instance took over the name
+            OWNERS.remove(name);
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                System.err.println("Could not unregister cache metrics: " + e.getMessage());
+            }
+        }
+    }
+    
+    String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Gets: %,d  Hits: %,d  Misses: %,d  Hit ratio: %.1f%%%n",
+            gets.sum(), hits.sum(), misses.sum(), hitRatio() * 100));
+        sb.append(String.format("Puts: %,d  Removes: %,d  CRC failures: %,d%n",
+            puts.sum(), removes.sum(), crcFailures.sum()));
+        sb.append(String.format("Bytes read: %,d  Bytes written: %,d%n%n", bytesRead.sum(), bytesWritten.sum()));
+        sb.append(String.format("%-12s %10s %10s %10s %10s %10s%n", "Latency (us)", "count", "mean", "p50", "p99", "max"));
+        appendLatency(sb, "get", getLatency);
+        appendLatency(sb, "put", putLatency);
+        appendLatency(sb, "remove", removeLatency);
+        appendLatency(sb, "loadIndices", loadLatency);
+        appendLatency(sb, "saveIndices", saveLatency);
+        return sb.toString();
+    }
+    
+    private static void appendLatency(StringBuilder sb, String op, LatencyHistogram histogram) {
+        sb.append(String.format("%-12s %,10d %10.1f %10.1f %10.1f %10.1f%n", op, histogram.count(),
+            histogram.mean() / 1000.0, histogram.percentile(50) / 1000.0,
+            histogram.percentile(99) / 1000.0, histogram.max() / 1000.0));
+    }
+    
+    // DynamicMBean: attributes are read-only views over the counters above
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> supplier = attributes.get(attribute);
+        if (supplier == null) throw new AttributeNotFoundException(attribute);
+        return supplier.get();
+    }
+    
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Cache metrics are read-only: " + attribute.getName());
+    }
+    
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> supplier = attributes.get(name);
+            if (supplier != null) list.add(new Attribute(name, supplier.get()));
+        }
+        return list;
+    }
+    
+    @Override
+    public AttributeList setAttributes(AttributeList list) {
+        return new AttributeList();
+    }
+    
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if ("reset".equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+    
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        for (Map.Entry<String, Supplier<Object>> entry : attributes.entrySet()) {
+            String type = entry.getValue().get() instanceof Long ? "long" : "double";
+            infos.add(new MBeanAttributeInfo(entry.getKey(), type, entry.getKey(), true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Reset all counters and histograms",
+            new MBeanParameterInfo[0], "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "GameCache hot-path metrics",
+            infos.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+}
+
+// Headless command-line entry point: java GameCacheTool <command> ...
+class GameCacheTool {
+    private static final int CACHE_VERSION = 317;
+    
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            usage();
+            System.exit(1);
+        }
+        try {
+            System.exit(run(args));
+        } catch (IOException | IllegalArgumentException e) {
+            // IllegalArgumentException includes NumberFormatException from numeric options like --threads=x
+            System.err.println("Error: " + e.getMessage());
+            System.exit(2);
+        }
+    }
+    
+    static int run(String[] args) throws IOException {
+        List<String> options = new ArrayList<>();
+        List<String> params = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            (args[i].startsWith("--") ? options : params).add(args[i]);
+        }
+        
+        switch (args[0]) {
+            case "export": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                long start = System.nanoTime();
+                try (OutputStream out = new FileOutputStream(params.get(1))) {
+                    long count = cache.exportPack(out, options.contains("--compress"));
+                    System.out.println("Exported " + count + " entries to " + params.get(1)
+                        + " in " + elapsedMillis(start) + " ms");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "import": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                long start = System.nanoTime();
+                try (InputStream in = new FileInputStream(params.get(1))) {
+                    long count = cache.importPack(in);
+                    System.out.println("Imported " + count + " entries from " + params.get(1)
+                        + " in " + elapsedMillis(start) + " ms");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "sync": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                CacheDirectorySync sync = new CacheDirectorySync(cache, Paths.get(params.get(1)),
+                    Paths.get(params.get(0) + ".sync"));
+                System.out.println("Synced: " + sync.sync());
+                if (!options.contains("--watch")) {
+                    cache.close();
+                    return 0;
+                }
+                System.out.println("Watching " + params.get(1) + " for changes (Ctrl+C to stop)");
+                sync.startWatching(result -> System.out.println("Synced: " + result),
+                    error -> System.err.println("Sync error: " + error.getMessage()));
+                try {
+                    Thread.currentThread().join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+            case "replay": {
+                if (params.size() != 2) return usage();
+                int threads = Integer.parseInt(option(options, "--threads", "4"));
+                double speed = Double.parseDouble(option(options, "--speed", "1"));
+                if (threads < 1) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    System.out.println(new TraceReplayer(cache, Paths.get(params.get(1)), threads, speed).run());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "relayout": {
+                if (params.isEmpty() || params.size() > 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    System.out.println(cache.relayout(params.size() == 2 ? Paths.get(params.get(1)) : null));
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "backup": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    System.out.println(cache.backup(params.get(1)));
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "restore": {
+                if (params.size() != 2) return usage();
+                int threads = Integer.parseInt(option(options, "--threads",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+                try {
+                    System.out.println(GameCache.restore(params.get(0), params.get(1), CACHE_VERSION, threads));
+                    System.out.println("Restored " + params.get(0) + " to " + params.get(1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                }
+                return 0;
+            }
+            case "diff": {
+                if (params.size() != 3) return usage();
+                GameCache from = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    GameCache to = new GameCache(params.get(1), CACHE_VERSION);
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(params.get(2)))) {
+                        System.out.println(GameCache.diff(from, to, out, options.contains("--compress")));
+                    } finally {
+                        to.close();
+                    }
+                } finally {
+                    from.close();
+                }
+                return 0;
+            }
+            case "patch": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                long start = System.nanoTime();
+                try (InputStream in = new FileInputStream(params.get(1))) {
+                    long count = cache.importPack(in);
+                    System.out.println("Applied " + count + " changes from " + params.get(1)
+                        + " in " + elapsedMillis(start) + " ms");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "freeze": {
+                if (params.size() != 2) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                long start = System.nanoTime();
+                try {
+                    long count = cache.freeze(Paths.get(params.get(1)));
+                    System.out.println("Froze " + count + " entries to " + params.get(1)
+                        + " in " + elapsedMillis(start) + " ms");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "stats": {
+                if (params.size() != 1) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                long start = System.nanoTime();
+                try {
+                    // Payload sizes in power-of-two buckets, gathered by a parallel scan of the index
+                    long[] sizes = cache.stream().parallel().collect(() -> new long[64],
+                        (counts, ref) -> counts[64 - Long.numberOfLeadingZeros(ref.entry.payloadLength())]++,
+                        (a, b) -> {
+                            for (int i = 0; i < a.length; i++) a[i] += b[i];
+                        });
+                    for (int i = 0; i < sizes.length; i++) {
+                        if (sizes[i] > 0) {
+                            System.out.printf("  < %-10s %,d%n", GameCacheGUI.formatFileSize(1L << i), sizes[i]);
+                        }
+                    }
+                    if (options.contains("--audit")) {
+                        // Reading every payload checks its segment CRCs; each worker reads one file range
+                        long bytes = cache.scan(ref -> true).parallel().mapToLong(data -> data.payload.remaining()).sum();
+                        System.out.println("Audited " + GameCacheGUI.formatFileSize(bytes) + " of payload, no CRC errors");
+                    }
+                    System.out.println("Done in " + elapsedMillis(start) + " ms");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "feed": {
+                if (params.size() != 1) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    cache.enableChangeFeed();
+                    System.out.println("Change feed enabled: " + params.get(0) + ".feed");
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "serve": {
+                if (params.size() != 2) return usage();
+                try (ChangeFeed.Server server = new ChangeFeed.Server(params.get(0), Integer.parseInt(params.get(1)))) {
+                    System.out.println("Serving change feed of " + params.get(0) + " on 127.0.0.1:" + server.getPort());
+                    Thread.currentThread().join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+            case "follow": {
+                if (params.size() != 2) return usage();
+                int batchSize = Integer.parseInt(option(options, "--batch", "1000"));
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    CacheFollower follower = new CacheFollower(cache, params.get(0), batchSize);
+                    // <leader> is either host:port of a feed server or the base path of a cache on this disk
+                    String leader = params.get(1);
+                    ChangeFeed.Source source = leader.matches("[\\w.-]+:\\d+")
+                        ? new ChangeFeed.SocketSource(leader.substring(0, leader.lastIndexOf(':')),
+                            Integer.parseInt(leader.substring(leader.lastIndexOf(':') + 1)),
+                            follower.getEpoch(), follower.getApplied())
+                        : new ChangeFeed.FileSource(Paths.get(leader + ".feed"), Paths.get(leader + ".dat"),
+                            follower.getEpoch(), follower.getApplied());
+                    java.util.Timer reporter = new java.util.Timer("follow-status", true);
+                    reporter.schedule(new TimerTask() {
+                        @Override
+                        public void run() {
+                            System.out.println(follower.status());
+                        }
+                    }, 5000, 5000);
+                    try {
+                        follower.run(source);
+                    } finally {
+                        reporter.cancel();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return 1;
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            case "info": {
+                if (params.size() != 1) return usage();
+                GameCache cache = new GameCache(params.get(0), CACHE_VERSION);
+                try {
+                    for (Map.Entry<Integer, GameCache.CacheIndex> entry : new TreeMap<>(cache.getIndices()).entrySet()) {
+                        System.out.println("Archive " + entry.getKey() + ": " + entry.getValue().entries.size() + " files");
+                    }
+                } finally {
+                    cache.close();
+                }
+                return 0;
+            }
+            default:
+                return usage();
+        }
+    }
+    
+    // Value of a --name=value option, or the default
+    private static String option(List<String> options, String name, String defaultValue) {
+        for (String option : options) {
+            if (option.startsWith(name + "=")) return option.substring(name.length() + 1);
+        }
+        return defaultValue;
+    }
+    
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+    
+    private static int usage() {
+        System.err.println("Usage: GameCacheTool <command> [args]");
+        System.err.println("  export <cache> <pack> [--compress]   Write all live entries to a pack file");
+        System.err.println("  import <cache> <pack>                Add all entries from a pack file");
+        System.err.println("  sync <cache> <dir> [--watch]         Import changed files from <dir>/<archive>/<fileId>.*");
+        System.err.println("  replay <cache> <trace> [--threads=N] [--speed=X]");
+        System.err.println("                                       Replay a recorded access trace (speed 0 = max)");
+        System.err.println("  relayout <cache> [trace]             Rewrite the data file in trace co-access order");
+        System.err.println("                                       (archive/file order without a trace)");
+        System.err.println("  backup <cache> <target>              Snapshot a live cache, incrementally if possible");
+        System.err.println("  restore <backup> <cache> [--threads=N]");
+        System.err.println("                                       Verify a backup's CRCs and install it as <cache>");
+        System.err.println("  diff <old> <new> <patch> [--compress]");
+        System.err.println("                                       Write the changes from <old> to <new> as a patch");
+        System.err.println("  patch <cache> <patch>                Apply a patch written by diff");
+        System.err.println("  freeze <cache> <file>                Write a read-only copy for FrozenGameCache");
+        System.err.println("  stats <cache> [--audit]              Payload size histogram; --audit reads and checks every entry");
+        System.err.println("  feed <cache>                         Start publishing changes to <cache>.feed");
+        System.err.println("  serve <cache> <port>                 Serve the change feed to followers on localhost");
+        System.err.println("  follow <cache> <leader> [--batch=N]  Replicate from a leader cache path or host:port");
+        System.err.println("  info <cache>                         List archives and file counts");
+        System.err.println("<cache> is the base path without extension, e.g. game_cache");
+        System.err.println("Record a trace by running with -Dgamecache.trace=<file> or from the Manage Cache tab");
+        return 1;
+    }
+}
+
+// Open-addressing int->int map (linear probing) from name hash to file id
+class NameHashIndex {
+    private int[] keys = new int[16];
+    private int[] values = new int[16];
+    private boolean[] used = new boolean[16];
+    private int size;
+    
+    int size() {
+        return size;
+    }
+    
+    // Returns the file id for the hash, or -1 if absent
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int slot = mix(key) & mask; used[slot]; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) return values[slot];
+        }
+        return -1;
+    }
+    
+    void put(int key, int value) {
+        if ((size + 1) * 4 > keys.length * 3) grow();
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot]) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+    }
+    
+    void remove(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+        if (!used[slot]) return;
+        
+        // Backward-shift deletion keeps probe chains intact without tombstones
+        int gap = slot;
+        for (int next = (gap + 1) & mask; used[next]; next = (next + 1) & mask) {
+            int home = mix(keys[next]) & mask;
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+        }
+        used[gap] = false;
+        size--;
+    }
+    
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+        }
+    }
+    
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+// Size-classed pool of reusable direct buffers (powers of two from 4 KB to 4 MB)
+class BufferPool {
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 22;
+    
+    private final List<ArrayDeque<ByteBuffer>> free = new ArrayList<>();
+    private final int maxPerClass;
+    
+    BufferPool(int maxPerClass) {
+        this.maxPerClass = maxPerClass;
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            free.add(new ArrayDeque<>(maxPerClass));
+        }
+    }
+    
+    // Returns a cleared buffer with limit == size; oversized requests get an unpooled heap buffer
+    ByteBuffer acquire(int size) {
+        if (size > 1 << MAX_SHIFT) return ByteBuffer.allocate(size);
+        int sizeClass = size <= 1 << MIN_SHIFT ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+        ArrayDeque<ByteBuffer> pool = free.get(sizeClass);
+        ByteBuffer buffer;
+        synchronized (pool) {
+            buffer = pool.pollFirst();
+        }
+        if (buffer == null) buffer = ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SHIFT));
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+    
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) return;
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.capacity()) - MIN_SHIFT;
+        if (sizeClass < 0 || sizeClass >= free.size() || buffer.capacity() != 1 << (sizeClass + MIN_SHIFT)) return;
+        ArrayDeque<ByteBuffer> pool = free.get(sizeClass);
+        synchronized (pool) {
+            if (pool.size() < maxPerClass) pool.addFirst(buffer);
+        }
+    }
+}
+
+// Mirrors a directory tree laid out as <root>/<archive>/<fileId>.* into a cache, importing only
+// files whose size/mtime/CRC differ from the manifest written by the previous sync
+class CacheDirectorySync {
+    private static final int MANIFEST_MAGIC = 0x47435359; // "GCSY"
+    private static final long QUIET_MILLIS = 500;
+    private static final long MAX_DELAY_MILLIS = 5000;
+    
+    private final GameCache cache;
+    private final Path root;
+    private final Path manifestPath;
+    private final Map<String, ManifestEntry> manifest = new HashMap<>();
+    private volatile Thread watchThread;
+    private volatile WatchService watchService;
+    
+    static class ManifestEntry {
+        final int archiveId;
+        final int fileId;
+        final long size;
+        final long modified;
+        final int crc;
+        
+        ManifestEntry(int archiveId, int fileId, long size, long modified, int crc) {
+            this.archiveId = archiveId;
+            this.fileId = fileId;
+            this.size = size;
+            this.modified = modified;
+            this.crc = crc;
+        }
+    }
+    
+    static class SyncResult {
+        int added;
+        int updated;
+        int removed;
+        int unchanged;
+        int skipped;
+        long elapsedMillis;
+        
+        boolean hasChanges() {
+            return added + updated + removed > 0;
+        }
+        
+        @Override
+        public String toString() {
+            return added + " added, " + updated + " updated, " + removed + " removed, " + unchanged
+                + " unchanged" + (skipped > 0 ? ", " + skipped + " skipped" : "") + " (" + elapsedMillis + " ms)";
+        }
+    }
+    
+    CacheDirectorySync(GameCache cache, Path root, Path manifestPath) throws IOException {
+        this.cache = cache;
+        this.root = root;
+        this.manifestPath = manifestPath;
+        loadManifest();
+    }
+    
+    // Parses "<archive>/<fileId>[.ext]" relative paths; returns null for anything else
+    static int[] parseLayout(Path relative) {
+        if (relative.getNameCount() != 2) return null;
+        try {
+            int archiveId = Integer.parseInt(relative.getName(0).toString());
+            String name = relative.getName(1).toString();
+            int dot = name.indexOf('.');
+            int fileId = Integer.parseInt(dot >= 0 ? name.substring(0, dot) : name);
+            return archiveId >= 0 && fileId >= 0 ? new int[]{archiveId, fileId} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    synchronized SyncResult sync() throws IOException {
+        long start = System.nanoTime();
+        SyncResult result = new SyncResult();
+        Map<String, ManifestEntry> seen = new HashMap<>();
+        Set<Long> targets = new HashSet<>();
+        
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path archiveDir : archives) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(archiveDir, Files::isRegularFile)) {
+                    for (Path file : entries) files.add(file);
+                }
+            }
+        }
+        Collections.sort(files);
+        
+        try (GameCache.Batch batch = cache.batch()) {
+            for (Path file : files) {
+                String key = root.relativize(file).toString().replace('\\', '/');
+                int[] ids = parseLayout(root.relativize(file));
+                // Two files mapping to the same archive/file id: the first in path order wins
+                if (ids == null || !targets.add(((long) ids[0] << 32) | (ids[1] & 0xFFFFFFFFL))) {
+                    result.skipped++;
+                    continue;
+                }
+                
+                BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                long size = attrs.size();
+                long modified = attrs.lastModifiedTime().toMillis();
+                ManifestEntry previous = manifest.get(key);
+                boolean inCache = cache.contains(ids[0], ids[1]);
+                
+                if (previous != null && inCache && previous.size == size && previous.modified == modified) {
+                    seen.put(key, previous);
+                    result.unchanged++;
+                    continue;
+                }
+                
+                int dataCrc = crcOf(file);
+                if (previous != null && inCache && previous.crc == dataCrc
+                        && previous.archiveId == ids[0] && previous.fileId == ids[1]) {
+                    // Touched but identical content: only the manifest needs the new mtime
+                    result.unchanged++;
+                } else {
+                    batch.put(ids[0], ids[1], file.getFileName().toString(), file, 0);
+                    if (previous != null || inCache) result.updated++; else result.added++;
+                }
+                seen.put(key, new ManifestEntry(ids[0], ids[1], size, modified, dataCrc));
+            }
+            
+            for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+                ManifestEntry gone = entry.getValue();
+                long target = ((long) gone.archiveId << 32) | (gone.fileId & 0xFFFFFFFFL);
+                if (!seen.containsKey(entry.getKey()) && !targets.contains(target)) {
+                    batch.remove(gone.archiveId, gone.fileId);
+                    result.removed++;
+                }
+            }
+            
+            if (batch.size() > 0) batch.commit();
+        }
+        
+        manifest.clear();
+        manifest.putAll(seen);
+        saveManifest();
+        result.elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        return result;
+    }
+    
+    private static int crcOf(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file)) {
+            for (int read; (read = in.read(buffer)) > 0; ) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return (int) crc.getValue();
+    }
+    
+    // Watches the tree and runs sync() once a burst of changes has been quiet for QUIET_MILLIS
+    void startWatching(Consumer<SyncResult> onSync,
+                       Consumer<Exception> onError) throws IOException {
+        if (watchThread != null) return;
+        watchService = root.getFileSystem().newWatchService();
+        registerTree();
+        
+        watchThread = new Thread(() -> {
+            WatchService watcher = watchService;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    WatchKey key = watcher.take();
+                    long burstStart = System.currentTimeMillis();
+                    boolean newDirectories = drain(key);
+                    
+                    // Debounce: keep collecting until the tree is quiet or the burst runs too long
+                    while (System.currentTimeMillis() - burstStart < MAX_DELAY_MILLIS) {
+                        WatchKey next = watcher.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                        if (next == null) break;
+                        newDirectories |= drain(next);
+                    }
+                    if (newDirectories) registerTree();
+                    
+                    try {
+                        SyncResult result = sync();
+                        if (result.hasChanges()) onSync.accept(result);
+                    } catch (IOException e) {
+                        onError.accept(e);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                // Watching stopped
+            } catch (IOException e) {
+                onError.accept(e);
+            }
+        }, "cache-sync-watcher");
+        watchThread.setDaemon(true);
+        watchThread.start();
+    }
+    
+    void stopWatching() {
+        Thread thread = watchThread;
+        watchThread = null;
+        if (thread == null) return;
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+    
+    boolean isWatching() {
+        return watchThread != null;
+    }
+    
+    private boolean drain(WatchKey key) {
+        boolean newDirectories = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                newDirectories = true;
+            }
+        }
+        key.reset();
+        return newDirectories;
+    }
+    
+    private void registerTree() throws IOException {
+        WatchEvent.Kind<?>[] kinds = {StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE};
+        root.register(watchService, kinds);
+        try (DirectoryStream<Path> archives = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path archiveDir : archives) archiveDir.register(watchService, kinds);
+        }
+    }
+    
+    private void loadManifest() throws IOException {
+        if (!Files.exists(manifestPath)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestPath)))) {
+            if (in.readInt() != MANIFEST_MAGIC) throw new IOException("Not a sync manifest: " + manifestPath);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                manifest.put(key, new ManifestEntry(in.readInt(), in.readInt(), in.readLong(), in.readLong(), in.readInt()));
+            }
+        }
+    }
+    
+    private void saveManifest() throws IOException {
+        Path temp = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(manifest.size());
+            for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+                ManifestEntry m = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(m.archiveId);
+                out.writeInt(m.fileId);
+                out.writeLong(m.size);
+                out.writeLong(m.modified);
+                out.writeInt(m.crc);
+            }
+        }
+        Files.move(temp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
+
+// Virtual table over a primitive-column snapshot of the cache index; rows are never materialised
+// and getValueAt reads straight from the columns through the current filtered/sorted view
+class CacheBrowserModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Archive", "File ID", "Name Hash", "Size", "Container", "Offset"};
+    
+    private Columns columns;
+    private int[] view = new int[0];
+    
+    static class Columns {
+        int count;
+        int[] archives;
+        int[] fileIds;
+        int[] nameHashes;
+        int[] containers;
+        long[] sizes;
+        long[] offsets;
+        
+        static Columns read(GameCache cache) {
+            Columns c = new Columns();
+            int capacity = cache.getEntryCount() + 64;
+            c.allocate(capacity);
+            cache.forEachEntry((indexId, entry) -> {
+                // Entries added between counting and visiting grow the arrays
+                if (c.count == c.archives.length) c.grow();
+                int row = c.count++;
+                c.archives[row] = indexId;
+                c.fileIds[row] = entry.fileId;
+                c.nameHashes[row] = entry.nameHash;
+                c.containers[row] = entry.container;
+                c.sizes[row] = entry.payloadLength();
+                c.offsets[row] = entry.dataPosition;
+            });
+            return c;
+        }
+        
+        private void allocate(int capacity) {
+            archives = new int[capacity];
+            fileIds = new int[capacity];
+            nameHashes = new int[capacity];
+            containers = new int[capacity];
+            sizes = new long[capacity];
+            offsets = new long[capacity];
+        }
+        
+        private void grow() {
+            int capacity = archives.length * 2;
+            archives = Arrays.copyOf(archives, capacity);
+            fileIds = Arrays.copyOf(fileIds, capacity);
+            nameHashes = Arrays.copyOf(nameHashes, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+        }
+        
+        int[] archiveIds() {
+            return Arrays.stream(archives, 0, count).distinct().sorted().toArray();
+        }
+        
+        // Row numbers passing the filters (-1 / 0 = no filter), sorted on the given column
+        int[] view(int archiveFilter, int containerFilter, long minSize, int sortColumn, boolean ascending) {
+            int[] rows = new int[count];
+            int n = 0;
+            for (int row = 0; row < count; row++) {
+                if (archiveFilter >= 0 && archives[row] != archiveFilter) continue;
+                if (containerFilter >= 0 && containers[row] != containerFilter) continue;
+                if (sizes[row] < minSize) continue;
+                rows[n++] = row;
+            }
+            rows = Arrays.copyOf(rows, n);
+            
+            IntBinaryOperator byArchiveAndFile = (a, b) -> archives[a] != archives[b]
+                ? Integer.compare(archives[a], archives[b]) : Integer.compare(fileIds[a], fileIds[b]);
+            IntBinaryOperator comparator;
+            switch (sortColumn) {
+                case 1: comparator = (a, b) -> Integer.compare(fileIds[a], fileIds[b]); break;
+                case 2: comparator = (a, b) -> Integer.compare(nameHashes[a], nameHashes[b]); break;
+                case 3: comparator = (a, b) -> Long.compare(sizes[a], sizes[b]); break;
+                case 4: comparator = (a, b) -> Integer.compare(containers[a], containers[b]); break;
+                case 5: comparator = (a, b) -> Long.compare(offsets[a], offsets[b]); break;
+                default: comparator = byArchiveAndFile; break;
+            }
+            IntBinaryOperator primary = comparator;
+            IntBinaryOperator order = (a, b) -> {
+                int result = primary.applyAsInt(a, b);
+                if (result == 0) result = byArchiveAndFile.applyAsInt(a, b);
+                return ascending ? result : -result;
+            };
+            mergeSort(rows, new int[n], 0, n, order);
+            return rows;
+        }
+        
+        // Stable merge sort over primitive row numbers (no boxing, unlike a TableRowSorter)
+        private static void mergeSort(int[] rows, int[] scratch, int from, int to, IntBinaryOperator order) {
+            if (to - from < 16) {
+                for (int i = from + 1; i < to; i++) {
+                    int row = rows[i];
+                    int j = i - 1;
+                    while (j >= from && order.applyAsInt(rows[j], row) > 0) {
+                        rows[j + 1] = rows[j];
+                        j--;
+                    }
+                    rows[j + 1] = row;
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(rows, scratch, from, mid, order);
+            mergeSort(rows, scratch, mid, to, order);
+            if (order.applyAsInt(rows[mid - 1], rows[mid]) <= 0) return;
+            System.arraycopy(rows, from, scratch, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right >= to || (left < mid && order.applyAsInt(scratch[left], scratch[right]) <= 0)) {
+                    rows[i] = scratch[left++];
+                } else {
+                    rows[i] = scratch[right++];
+                }
+            }
+        }
+    }
+    
+    // Columns and view are swapped together on the EDT so rows always index the right snapshot
+    void setData(Columns columns, int[] view) {
+        this.columns = columns;
+        this.view = view;
+        fireTableDataChanged();
+    }
+    
+    @Override
+    public int getRowCount() {
+        return view.length;
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return column == 2 ? String.class : Number.class;
+    }
+    
+    @Override
+    public Object getValueAt(int rowIndex, int column) {
+        int row = view[rowIndex];
+        switch (column) {
+            case 0: return columns.archives[row];
+            case 1: return columns.fileIds[row];
+            case 2: return columns.nameHashes[row] == 0 ? "" : String.format("%08X", columns.nameHashes[row]);
+            case 3: return columns.sizes[row];
+            case 4: return columns.containers[row];
+            default: return columns.offsets[row];
+        }
+    }
+}
+
+// Batches log lines and progress from worker threads into at most N UI updates per second.
+// The log view is a bounded ring: once it holds maxLines, the oldest lines are dropped.
+class UiUpdateChannel {
+    private final JTextArea logArea;
+    private final JLabel statusLabel;
+    private final int maxLines;
+    private final javax.swing.Timer timer;
+    private final ConcurrentLinkedQueue<String> pendingLines = new ConcurrentLinkedQueue<>();
+    
+    private volatile String progressLabel;
+    private volatile int totalFiles;
+    private volatile long totalBytes;
+    private volatile long startNanos;
+    private final AtomicLong filesDone = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    
+    UiUpdateChannel(JTextArea logArea, JLabel statusLabel, int maxLines, int updatesPerSecond) {
+        this.logArea = logArea;
+        this.statusLabel = statusLabel;
+        this.maxLines = maxLines;
+        this.timer = new javax.swing.Timer(1000 / updatesPerSecond, e -> flush());
+    }
+    
+    void start() {
+        timer.start();
+    }
+    
+    void stop() {
+        timer.stop();
+        flush();
+    }
+    
+    // Safe from any thread
+    void log(String line) {
+        pendingLines.add(line);
+    }
+    
+    void startProgress(String label, int files, long bytes) {
+        filesDone.set(0);
+        bytesDone.set(0);
+        totalFiles = files;
+        totalBytes = bytes;
+        startNanos = System.nanoTime();
+        progressLabel = label;
+    }
+    
+    void progress(long bytes) {
+        filesDone.incrementAndGet();
+        bytesDone.addAndGet(bytes);
+    }
+    
+    void finishProgress() {
+        progressLabel = null;
+    }
+    
+    private void flush() {
+        if (!pendingLines.isEmpty()) {
+            StringBuilder text = new StringBuilder();
+            int lines = 0;
+            for (String line; (line = pendingLines.poll()) != null; ) {
+                text.append(line).append('\n');
+                lines++;
+            }
+            // Only the newest maxLines of this flush can survive the trim anyway
+            if (lines > maxLines) {
+                int cut = 0;
+                for (int i = lines - maxLines; i > 0; i--) cut = text.indexOf("\n", cut) + 1;
+                text.delete(0, cut);
+            }
+            logArea.append(text.toString());
+            trimLog();
+            logArea.setCaretPosition(logArea.getDocument().getLength());
+        }
+        
+        String label = progressLabel;
+        if (label != null) statusLabel.setText(progressText(label));
+    }
+    
+    private void trimLog() {
+        int excess = logArea.getLineCount() - 1 - maxLines;
+        if (excess <= 0) return;
+        try {
+            logArea.getDocument().remove(0, logArea.getLineEndOffset(excess - 1));
+        } catch (javax.swing.text.BadLocationException e) {
+            logArea.setText("");
+        }
+    }
+    
+    private String progressText(String label) {
+        long files = filesDone.get();
+        long bytes = bytesDone.get();
+        double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-3);
+        double filesPerSecond = files / seconds;
+        double bytesPerSecond = bytes / seconds;
+        
+        String eta = "--:--";
+        if (files > 0) {
+            double remaining = totalBytes > 0 && bytesPerSecond > 0
+                ? (totalBytes - bytes) / bytesPerSecond
+                : (totalFiles - files) / filesPerSecond;
+            long etaSeconds = Math.max(0, Math.round(remaining));
+            eta = String.format("%d:%02d", etaSeconds / 60, etaSeconds % 60);
+        }
+        int percent = totalFiles == 0 ? 100 : (int) (files * 100 / totalFiles);
+        return String.format("%s... %d%% (%,d/%,d) | %,.0f files/s | %.1f MB/s | ETA %s",
+            label, percent, files, totalFiles, filesPerSecond, bytesPerSecond / (1024 * 1024), eta);
+    }
+}
+
+// Pending import list: rows in an ArrayList with a HashSet for O(1) duplicate checks.
+// Only touched on the EDT; rows arrive in chunks and fire one insert event per chunk.
+class PendingFileModel extends AbstractTableModel {
+    private static final String[] COLUMN_NAMES = {"Filename", "Archive ID", "File ID", "Size", "Container"};
+    
+    private final List<PendingFile> rows = new ArrayList<>();
+    private final Set<File> known = new HashSet<>();
+    // File ids taken in each archive, so no two rows import to the same key
+    private final Map<Integer, Set<Integer>> usedIds = new HashMap<>();
+    private final Map<Integer, Integer> nextFileId = new HashMap<>();
+    
+    static class PendingFile {
+        final File file;
+        final long size;
+        int archiveId;
+        int fileId;
+        
+        PendingFile(File file, long size, int archiveId, int fileId) {
+            this.file = file;
+            this.size = size;
+            this.archiveId = archiveId;
+            this.fileId = fileId;
+        }
+    }
+    
+    // Adds the files not already pending; ids of -1 are assigned from the default archive and
+    // the next free file id in that archive. Files whose explicit id is already taken in their
+    // archive are not added but collected in rejected. Returns the number of rows added.
+    int addAll(List<PendingFile> files, int defaultArchive, List<PendingFile> rejected) {
+        int first = rows.size();
+        for (PendingFile pending : files) {
+            if (known.contains(pending.file)) continue;
+            if (pending.archiveId < 0) pending.archiveId = defaultArchive;
+            if (pending.fileId < 0) {
+                pending.fileId = nextFreeId(pending.archiveId);
+            } else if (!idsIn(pending.archiveId).add(pending.fileId)) {
+                rejected.add(pending);
+                continue;
+            }
+            known.add(pending.file);
+            rows.add(pending);
+        }
+        if (rows.size() > first) fireTableRowsInserted(first, rows.size() - 1);
+        return rows.size() - first;
+    }
+    
+    // Moving a row to another archive releases its old id and takes the next free one there
+    PendingFile setArchive(int row, int archiveId) {
+        PendingFile pending = rows.get(row);
+        if (pending.archiveId == archiveId) return pending;
+        idsIn(pending.archiveId).remove(pending.fileId);
+        nextFileId.merge(pending.archiveId, pending.fileId, Math::min);
+        pending.archiveId = archiveId;
+        pending.fileId = nextFreeId(archiveId);
+        fireTableRowsUpdated(row, row);
+        return pending;
+    }
+    
+    private Set<Integer> idsIn(int archiveId) {
+        return usedIds.computeIfAbsent(archiveId, k -> new HashSet<>());
+    }
+    
+    // Claims the lowest free id at or above the archive's hint
+    private int nextFreeId(int archiveId) {
+        Set<Integer> used = idsIn(archiveId);
+        int id = nextFileId.getOrDefault(archiveId, 0);
+        while (used.contains(id)) id++;
+        used.add(id);
+        nextFileId.put(archiveId, id + 1);
+        return id;
+    }
+    
+    List<PendingFile> snapshot() {
+        return new ArrayList<>(rows);
+    }
+    
+    void clear() {
+        rows.clear();
+        known.clear();
+        usedIds.clear();
+        nextFileId.clear();
+        fireTableDataChanged();
+    }
+    
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+    
+    @Override
+    public Object getValueAt(int row, int column) {
+        PendingFile pending = rows.get(row);
+        switch (column) {
+            case 0: return pending.file.getName();
+            case 1: return pending.archiveId;
+            case 2: return pending.fileId;
+            case 3: return GameCacheGUI.formatFileSize(pending.size);
+            default: return 0;
+        }
+    }
+}
+
+// Compact binary access log: header, then fixed 21-byte records of
+// (start nanos since trace start, op, indexId, fileId, latency nanos capped to int)
+class AccessTrace implements Closeable {
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_REMOVE = 3;
+    static final int MAGIC = 0x47435452; // "GCTR"
+    static final int RECORD_SIZE = 21;
+    
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 32 * 1024);
+    private final long originNanos = System.nanoTime();
+    private long records;
+    private IOException failure;
+    
+    AccessTrace(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.putInt(MAGIC);
+        buffer.putInt(1);
+    }
+    
+    // Recording never throws; a write failure is kept and reported by close()
+    synchronized void record(byte op, int indexId, int fileId, long startNanos, long latencyNanos) {
+        if (failure != null) return;
+        if (buffer.remaining() < RECORD_SIZE) flush();
+        buffer.putLong(startNanos - originNanos);
+        buffer.put(op);
+        buffer.putInt(indexId);
+        buffer.putInt(fileId);
+        buffer.putInt((int) Math.min(latencyNanos, Integer.MAX_VALUE));
+        records++;
+    }
+    
+    synchronized long getRecordCount() {
+        return records;
+    }
+    
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            failure = e;
+        }
+        buffer.clear();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+        if (failure != null) throw failure;
+    }
+    
+    interface RecordHandler {
+        void handle(long timeNanos, byte op, int indexId, int fileId, int latencyNanos) throws IOException;
+    }
+    
+    // Streams the records of a trace file in order with constant memory
+    static long read(Path path, RecordHandler handler) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 256 * 1024))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not an access trace: " + path);
+            int traceVersion = in.readInt();
+            if (traceVersion != 1) throw new IOException("Unsupported trace version " + traceVersion);
+            long count = 0;
+            while (true) {
+                long time;
+                try {
+                    time = in.readLong();
+                } catch (EOFException e) {
+                    return count;
+                }
+                handler.handle(time, in.readByte(), in.readInt(), in.readInt(), in.readInt());
+                count++;
+            }
+        }
+    }
+}
+
+// Replays the reads of an access trace against a cache from N threads, at the original pace
+// scaled by a speed factor (0 = as fast as possible). Writes and removes are counted but not
+// replayed, so the cache under test is never modified.
+class TraceReplayer {
+    private final GameCache cache;
+    private final Path tracePath;
+    private final int threads;
+    private final double speed;
+    
+    static class Report {
+        long replayed;
+        long skippedWrites;
+        long misses;
+        long errors;
+        long elapsedNanos;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram scheduleLag = new LatencyHistogram();
+        
+        @Override
+        public String toString() {
+            double seconds = elapsedNanos / 1e9;
+            return String.format("Replayed %,d reads in %.2f s (%,.0f ops/s), %,d misses, %,d errors, %,d writes skipped%n"
+                    + "Latency (us): mean %.1f  p50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n"
+                    + "Schedule lag (us): p50 %.1f  p99 %.1f  max %.1f",
+                replayed, seconds, replayed / Math.max(seconds, 1e-9), misses, errors, skippedWrites,
+                latency.mean() / 1000, latency.percentile(50) / 1000.0, latency.percentile(90) / 1000.0,
+                latency.percentile(99) / 1000.0, latency.percentile(99.9) / 1000.0, latency.max() / 1000.0,
+                scheduleLag.percentile(50) / 1000.0, scheduleLag.percentile(99) / 1000.0, scheduleLag.max() / 1000.0);
+        }
+    }
+    
+    TraceReplayer(GameCache cache, Path tracePath, int threads, double speed) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1: " + threads);
+        this.cache = cache;
+        this.tracePath = tracePath;
+        this.threads = threads;
+        this.speed = speed;
+    }
+    
+    Report run() throws IOException, InterruptedException {
+        Report report = new Report();
+        AtomicLong replayed = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        // Bounded hand-off keeps memory constant however long the trace is
+        BlockingQueue<long[]> queue = new ArrayBlockingQueue<>(threads * 1024);
+        long[] poison = new long[0];
+        long replayStart = System.nanoTime();
+        
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                try {
+                    for (long[] op; (op = queue.take()) != poison; ) {
+                        int indexId = (int) op[1];
+                        int fileId = (int) op[2];
+                        long start = System.nanoTime();
+                        if (op[0] > 0) report.scheduleLag.record(start - op[0]);
+                        try {
+                            long length = cache.getLength(indexId, fileId);
+                            if (length < 0) {
+                                misses.incrementAndGet();
+                            } else if (length <= buffer.capacity()) {
+                                buffer.clear();
+                                cache.get(indexId, fileId, buffer);
+                            } else {
+                                cache.get(indexId, fileId);
+                            }
+                        } catch (IOException e) {
+                            errors.incrementAndGet();
+                        }
+                        report.latency.record(System.nanoTime() - start);
+                        replayed.incrementAndGet();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "trace-replay-" + i);
+            workers[i].start();
+        }
+        
+        try {
+            AccessTrace.read(tracePath, (time, op, indexId, fileId, latency) -> {
+                if (op != AccessTrace.OP_GET) {
+                    report.skippedWrites++;
+                    return;
+                }
+                long due = 0;
+                if (speed > 0) {
+                    due = replayStart + (long) (time / speed);
+                    long wait = due - System.nanoTime();
+                    // Parking overshoots by tens of microseconds, so short gaps are issued back to back
+                    if (wait > 50_000) LockSupport.parkNanos(wait);
+                }
+                try {
+                    queue.put(new long[]{due, indexId, fileId});
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Replay interrupted");
+                }
+            });
+        } finally {
+            for (int i = 0; i < threads; i++) queue.put(poison);
+            for (Thread worker : workers) worker.join();
+        }
+        
+        report.elapsedNanos = System.nanoTime() - replayStart;
+        report.replayed = replayed.get();
+        report.misses = misses.get();
+        report.errors = errors.get();
+        return report;
+    }
+}
+
+// Read-only cache opened from a file written by GameCache.freeze(). Lookups go through a minimal
+// perfect hash whose tables are read straight from the memory-mapped file, so opening is a header
+// read plus mmap and the index takes no heap. Files over 1 GB are mapped in several chunks.
+class FrozenGameCache implements Closeable {
+    static final int MAGIC = 0x4743465A; // "GCFZ"
+    static final int FORMAT = 1;
+    static final int PAGE = 4096;
+    static final int HEADER_SIZE = 64;
+    // indexId(4) fileId(4) offset(8) length(8) crc(4) container(4) nameHash(4) reserved(4)
+    static final int SLOT_SIZE = 40;
+    
+    // Chunks overlap by a little more than a slot, so a header field or slot never spans two of them
+    private static final long CHUNK = 1L << 30;
+    private static final int OVERLAP = 64;
+    private static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+    
+    private final MappedByteBuffer[] chunks;
+    private final int version;
+    private final int entryCount;
+    private final int bucketCount;
+    private final long seed;
+    private final long bucketsOffset;
+    private final long slotsOffset;
+    
+    static long align(long position) {
+        return (position + PAGE - 1) & -PAGE;
+    }
+    
+    FrozenGameCache(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException("Not a frozen cache: " + path);
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK - 1) / CHUNK)];
+            for (int i = 0; i < chunks.length; i++) {
+                long start = i * CHUNK;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK + OVERLAP));
+            }
+            // The mappings stay valid after the channel is closed
+        }
+        
+        if (chunks[0].getInt(0) != MAGIC) throw new IOException("Not a frozen cache: " + path);
+        int format = chunks[0].getInt(4);
+        if (format != FORMAT) throw new IOException("Unsupported frozen cache format " + format);
+        version = chunks[0].getInt(8);
+        entryCount = chunks[0].getInt(12);
+        bucketCount = chunks[0].getInt(16);
+        seed = chunks[0].getLong(24);
+        bucketsOffset = chunks[0].getLong(32);
+        slotsOffset = chunks[0].getLong(40);
+    }
+    
+    private int getInt(long position) {
+        return chunks[(int) (position / CHUNK)].getInt((int) (position % CHUNK));
+    }
+    
+    private long getLong(long position) {
+        return chunks[(int) (position / CHUNK)].getLong((int) (position % CHUNK));
+    }
+    
+    // Position of the entry's slot, or -1 if the cache does not hold it
+    private long find(int indexId, int fileId) {
+        if (entryCount == 0) return -1;
+        long key = ((long) indexId << 32) | (fileId & 0xFFFFFFFFL);
+        long hash = PerfectHash.hash(key, seed);
+        int displacement = getInt(bucketsOffset + 4L * PerfectHash.bucket(hash, bucketCount));
+        long slot = slotsOffset + (long) SLOT_SIZE * PerfectHash.slot(hash, displacement, entryCount);
+        // Keys that were never frozen still hash to some slot, so the stored key decides
+        return getInt(slot) == indexId && getInt(slot + 4) == fileId ? slot : -1;
+    }
+    
+    public boolean contains(int indexId, int fileId) {
+        return find(indexId, fileId) >= 0;
+    }
+    
+    public long getLength(int indexId, int fileId) {
+        long slot = find(indexId, fileId);
+        return slot >= 0 ? getLong(slot + 16) : -1;
+    }
+    
+    public int getEntryCount() {
+        return entryCount;
+    }
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    public byte[] get(int indexId, int fileId) throws IOException {
+        long slot = find(indexId, fileId);
+        if (slot < 0) return null;
+        long length = getLong(slot + 16);
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException("File " + fileId + " is " + length + " bytes; too large for a byte[]");
+        }
+        byte[] data = new byte[(int) length];
+        read(slot, ByteBuffer.wrap(data));
+        return data;
+    }
+    
+    // Copies the payload into dst at its position; returns its length, or -1 if the file is not in the cache
+    public int get(int indexId, int fileId, ByteBuffer dst) throws IOException {
+        long slot = find(indexId, fileId);
+        if (slot < 0) return -1;
+        long length = getLong(slot + 16);
+        if (dst.remaining() < length) {
+            throw new IOException("Buffer too small for file " + fileId + ": need " + length + " bytes");
+        }
+        return read(slot, dst);
+    }
+    
+    private int read(long slot, ByteBuffer dst) throws IOException {
+        long position = getLong(slot + 8);
+        int length = (int) getLong(slot + 16);
+        int start = dst.position();
+        int remaining = length;
+        while (remaining > 0) {
+            // Copy from the non-overlapping part of each chunk
+            int offset = (int) (position % CHUNK);
+            int count = (int) Math.min(remaining, CHUNK - offset);
+            ByteBuffer source = chunks[(int) (position / CHUNK)].duplicate();
+            source.position(offset).limit(offset + count);
+            dst.put(source);
+            position += count;
+            remaining -= count;
+        }
+        
+        int limit = dst.limit();
+        dst.limit(dst.position()).position(start);
+        CRC32 crc = CRC.get();
+        crc.reset();
+        crc.update(dst);
+        dst.limit(limit);
+        if ((int) crc.getValue() != getInt(slot + 24)) {
+            throw new IOException("CRC mismatch for file " + getInt(slot + 4) + " in archive " + getInt(slot));
+        }
+        return length;
+    }
+    
+    // Nothing to release explicitly: the mappings are unmapped when they are garbage collected
+    @Override
+    public void close() {
+    }
+    
+    // Hash-and-displace minimal perfect hash (CHD): keys are grouped into buckets of about four,
+    // and each bucket stores the displacement that sends all its keys to distinct free slots.
+    // Buckets are placed largest first, while many slots are still free.
+    static class PerfectHash {
+        final long seed;
+        final int[] displacements;
+        private final int slots;
+        
+        private PerfectHash(long seed, int[] displacements, int slots) {
+            this.seed = seed;
+            this.displacements = displacements;
+            this.slots = slots;
+        }
+        
+        static long hash(long key, long seed) {
+            long z = key + seed * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+        
+        static int bucket(long hash, int buckets) {
+            return (int) ((hash >>> 33) % buckets);
+        }
+        
+        static int slot(long hash, int displacement, int slots) {
+            long z = hash + (long) displacement * 0xC2B2AE3D27D4EB4FL;
+            z = (z ^ (z >>> 29)) * 0xBF58476D1CE4E5B9L;
+            return (int) ((z >>> 1) % slots);
+        }
+        
+        int slot(long key) {
+            long h = hash(key, seed);
+            return slot(h, displacements[bucket(h, displacements.length)], slots);
+        }
+        
+        static PerfectHash build(long[] keys) throws IOException {
+            int n = keys.length;
+            int buckets = Math.max(1, n / 4);
+            for (long seed = 1; seed <= 16; seed++) {
+                int[] displacements = tryBuild(keys, seed, buckets);
+                if (displacements != null) return new PerfectHash(seed, displacements, n);
+            }
+            throw new IOException("Could not build a perfect hash for " + n + " keys");
+        }
+        
+        private static int[] tryBuild(long[] keys, long seed, int buckets) {
+            int n = keys.length;
+            long[] hashes = new long[n];
+            int[] bucketSizes = new int[buckets + 1];
+            for (int i = 0; i < n; i++) {
+                hashes[i] = hash(keys[i], seed);
+                bucketSizes[bucket(hashes[i], buckets) + 1]++;
+            }
+            // Counting sort of key indices by bucket
+            int[] bucketStart = bucketSizes.clone();
+            for (int b = 0; b < buckets; b++) bucketStart[b + 1] += bucketStart[b];
+            int[] members = new int[n];
+            int[] fill = Arrays.copyOf(bucketStart, buckets);
+            for (int i = 0; i < n; i++) members[fill[bucket(hashes[i], buckets)]++] = i;
+            
+            Integer[] order = new Integer[buckets];
+            for (int b = 0; b < buckets; b++) order[b] = b;
+            Arrays.sort(order, (a, b) -> Integer.compare(bucketSizes[b + 1], bucketSizes[a + 1]));
+            
+            int[] displacements = new int[buckets];
+            BitSet taken = new BitSet(n);
+            int[] chosen = new int[64];
+            for (int b : order) {
+                int from = bucketStart[b];
+                int size = bucketStart[b + 1] - from;
+                if (size == 0) break;
+                if (size > chosen.length) return null;
+                boolean placed = false;
+                for (int d = 0; d < (1 << 24) && !placed; d++) {
+                    placed = true;
+                    for (int k = 0; k < size; k++) {
+                        int slot = slot(hashes[members[from + k]], d, n);
+                        boolean clash = taken.get(slot);
+                        for (int j = 0; j < k && !clash; j++) clash = chosen[j] == slot;
+                        if (clash) {
+                            placed = false;
+                            break;
+                        }
+                        chosen[k] = slot;
+                    }
+                    if (placed) {
+                        for (int k = 0; k < size; k++) taken.set(chosen[k]);
+                        displacements[b] = d;
+                    }
+                }
+                if (!placed) return null;
+            }
+            return displacements;
+        }
+    }
+}
+
+// Ordered log of a cache's committed changes, appended under the cache's index write lock so
+// records follow commit order. Puts reference the payload in the leader's data file rather than
+// copying it. A relayout or restore moves payloads, so it ends the log with a RESET record and
+// starts a new one under a new epoch; followers of the old epoch must be re-seeded.
+// Header: magic(4) format(4) epoch(8). Record: sequence(8) time millis(8) type(1) indexId(4)
+// fileId(4) dataPosition(8) dataLength(8) container(4) nameHash(4) payload crc(4) record crc(4)
+class ChangeFeed implements Closeable {
+    static final int MAGIC = 0x47434644; // "GCFD"
+    static final int FORMAT = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 57;
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    static final byte RESET = 3;
+    
+    private final Path path;
+    private final ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+    private final CRC32 crc = new CRC32();
+    private FileChannel channel;
+    private long epoch;
+    private long nextSequence;
+    private long end;
+    
+    ChangeFeed(Path path) throws IOException {
+        this.path = path;
+        open();
+    }
+    
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE) {
+            epoch = newEpoch();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putLong(epoch).flip();
+            while (header.hasRemaining()) channel.write(header, header.position());
+            nextSequence = 1;
+            end = HEADER_SIZE;
+            return;
+        }
+        epoch = readEpoch(channel, path);
+        
+        // Drop a record torn by a crash; its commit did not finish either
+        long count = (channel.size() - HEADER_SIZE) / RECORD_SIZE;
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        while (count > 0 && readRecord(channel, count, record) == null) count--;
+        end = HEADER_SIZE + count * RECORD_SIZE;
+        channel.truncate(end);
+        nextSequence = count + 1;
+    }
+    
+    private static long newEpoch() {
+        long epoch;
+        do {
+            epoch = ThreadLocalRandom.current().nextLong();
+        } while (epoch == 0);
+        return epoch;
+    }
+    
+    static long readEpoch(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) throw new IOException("Not a change feed: " + path);
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) throw new IOException("Not a change feed: " + path);
+        int format = header.getInt();
+        if (format != FORMAT) throw new IOException("Unsupported change feed format " + format);
+        return header.getLong();
+    }
+    
+    synchronized void append(byte type, int indexId, int fileId, GameCache.IndexEntry entry) throws IOException {
+        if (buffer.remaining() < RECORD_SIZE) flush();
+        int start = buffer.position();
+        buffer.putLong(nextSequence++);
+        buffer.putLong(System.currentTimeMillis());
+        buffer.put(type);
+        buffer.putInt(indexId);
+        buffer.putInt(fileId);
+        buffer.putLong(entry != null ? entry.dataPosition : 0);
+        buffer.putLong(entry != null ? entry.dataLength : 0);
+        buffer.putInt(entry != null ? entry.container : 0);
+        buffer.putInt(entry != null ? entry.nameHash : 0);
+        buffer.putInt(entry != null ? entry.crc : 0);
+        crc.reset();
+        crc.update(buffer.array(), start, RECORD_SIZE - 4);
+        buffer.putInt((int) crc.getValue());
+    }
+    
+    synchronized void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) end += channel.write(buffer, end);
+        buffer.clear();
+    }
+    
+    // Ends this epoch: followers reading on see RESET, followers opening later see the new epoch
+    synchronized void reset() throws IOException {
+        append(RESET, 0, 0, null);
+        flush();
+        channel.close();
+        Path temp = Paths.get(path + ".tmp");
+        Files.deleteIfExists(temp);
+        new ChangeFeed(temp).close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        open();
+    }
+    
+    static void resetIfPresent(Path path) throws IOException {
+        if (!Files.exists(path)) return;
+        try (ChangeFeed feed = new ChangeFeed(path)) {
+            feed.reset();
+        }
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+    
+    static class Change {
+        long sequence;
+        long timeMillis;
+        byte type;
+        int indexId;
+        int fileId;
+        long dataPosition;
+        long dataLength;
+        long length;
+        int container;
+        int nameHash;
+        int crc;
+        // Payload of a PUT; must be read to the end before the next change is requested
+        InputStream payload;
+    }
+    
+    // Reads record `sequence` (from 1), or returns null if it is not completely written yet
+    static Change readRecord(FileChannel channel, long sequence, ByteBuffer record) throws IOException {
+        long position = HEADER_SIZE + (sequence - 1) * RECORD_SIZE;
+        record.clear();
+        while (record.hasRemaining()) {
+            if (channel.read(record, position + record.position()) <= 0) return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_SIZE - 4);
+        if ((int) crc.getValue() != record.getInt(RECORD_SIZE - 4)) return null;
+        
+        record.flip();
+        Change change = new Change();
+        change.sequence = record.getLong();
+        change.timeMillis = record.getLong();
+        change.type = record.get();
+        change.indexId = record.getInt();
+        change.fileId = record.getInt();
+        change.dataPosition = record.getLong();
+        change.dataLength = record.getLong();
+        change.container = record.getInt();
+        change.nameHash = record.getInt();
+        change.crc = record.getInt();
+        change.length = change.type == PUT
+            ? change.dataLength - 12 * GameCache.segmentCount(change.dataLength) : 0;
+        if (change.sequence != sequence) throw new IOException("Change feed out of order at record " + sequence);
+        return change;
+    }
+    
+    static IOException reseed(String reason) {
+        return new IOException(reason + "; re-seed the follower from a backup of the leader");
+    }
+    
+    // Where a follower gets changes from; next() returns null if none arrives within the timeout
+    interface Source extends Closeable {
+        Change next(long timeoutMillis) throws IOException, InterruptedException;
+        
+        long epoch();
+        
+        // Sequence of the newest change the leader has published, for lag reporting
+        long headSequence() throws IOException;
+    }
+    
+    // Tails the leader's feed file and reads payloads from its data file; both must be on a shared disk
+    static class FileSource implements Source {
+        private final FileChannel feed;
+        private final FileChannel data;
+        private final long epoch;
+        private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        private long nextSequence;
+        
+        FileSource(Path feedPath, Path dataPath, long epoch, long applied) throws IOException {
+            feed = FileChannel.open(feedPath, StandardOpenOption.READ);
+            try {
+                this.epoch = readEpoch(feed, feedPath);
+                if (epoch != 0 && epoch != this.epoch) {
+                    throw reseed("Leader started a new change feed since this follower last ran");
+                }
+                data = FileChannel.open(dataPath, StandardOpenOption.READ);
+            } catch (IOException e) {
+                feed.close();
+                throw e;
+            }
+            nextSequence = applied + 1;
+        }
+        
+        @Override
+        public Change next(long timeoutMillis) throws IOException, InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                Change change = readRecord(feed, nextSequence, record);
+                if (change != null) {
+                    nextSequence++;
+                    if (change.type == PUT) change.payload = new SegmentInputStream(data, change.dataPosition, change.dataLength);
+                    return change;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return null;
+                Thread.sleep(Math.min(remaining, 20));
+            }
+        }
+        
+        @Override
+        public long epoch() {
+            return epoch;
+        }
+        
+        @Override
+        public long headSequence() throws IOException {
+            return (feed.size() - HEADER_SIZE) / RECORD_SIZE;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            feed.close();
+            data.close();
+        }
+    }
+    
+    // Payload bytes of an entry in a data file, skipping the segment headers
+    private static class SegmentInputStream extends InputStream {
+        private final FileChannel data;
+        private final long end;
+        private final ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+        private long position;
+        private long segmentRemaining;
+        
+        SegmentInputStream(FileChannel data, long position, long dataLength) {
+            this.data = data;
+            this.position = position;
+            this.end = position + dataLength;
+            chunk.limit(0);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!chunk.hasRemaining()) {
+                while (segmentRemaining == 0) {
+                    if (position >= end) return -1;
+                    ByteBuffer header = ByteBuffer.allocate(12);
+                    while (header.hasRemaining()) {
+                        if (data.read(header, position + header.position()) < 0) throw new EOFException("Leader data file truncated");
+                    }
+                    segmentRemaining = header.getInt(0);
+                    position += 12;
+                }
+                chunk.clear();
+                chunk.limit((int) Math.min(chunk.capacity(), segmentRemaining));
+                while (chunk.hasRemaining()) {
+                    if (data.read(chunk, position + chunk.position()) < 0) throw new EOFException("Leader data file truncated");
+                }
+                chunk.flip();
+                position += chunk.limit();
+                segmentRemaining -= chunk.limit();
+            }
+            int count = Math.min(len, chunk.remaining());
+            chunk.get(b, off, count);
+            return count;
+        }
+    }
+    
+    // Frames sent by Server after the handshake: 'C' head(8) then a change (payload inline for
+    // PUT), or 'H' head(8) as a heartbeat while there is nothing new
+    private static final int FRAME_CHANGE = 'C';
+    private static final int FRAME_HEARTBEAT = 'H';
+    
+    // Receives changes from a Server over a local socket
+    static class SocketSource implements Source {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final long epoch;
+        private long head;
+        
+        SocketSource(String host, int port, long epoch, long applied) throws IOException {
+            socket = new Socket(host, port);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeLong(epoch);
+                out.writeLong(applied + 1);
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+                if (in.readUnsignedByte() != 'O') throw new IOException(in.readUTF());
+                this.epoch = in.readLong();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+        
+        @Override
+        public Change next(long timeoutMillis) throws IOException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                int type;
+                try {
+                    // Only the wait for the next frame may time out, never the middle of a frame
+                    socket.setSoTimeout((int) Math.max(1, deadline - System.currentTimeMillis()));
+                    type = in.read();
+                } catch (SocketTimeoutException e) {
+                    return null;
+                }
+                socket.setSoTimeout(30_000);
+                if (type < 0) throw new EOFException("Leader closed the connection");
+                head = in.readLong();
+                if (type == FRAME_HEARTBEAT) {
+                    if (System.currentTimeMillis() >= deadline) return null;
+                    continue;
+                }
+                if (type != FRAME_CHANGE) throw new IOException("Corrupt feed stream: unknown frame " + type);
+                
+                Change change = new Change();
+                change.sequence = in.readLong();
+                change.timeMillis = in.readLong();
+                change.type = in.readByte();
+                change.indexId = in.readInt();
+                change.fileId = in.readInt();
+                change.container = in.readInt();
+                change.nameHash = in.readInt();
+                change.crc = in.readInt();
+                change.length = in.readLong();
+                if (change.type == PUT) change.payload = new LimitedInputStream(in, change.length);
+                return change;
+            }
+        }
+        
+        @Override
+        public long epoch() {
+            return epoch;
+        }
+        
+        @Override
+        public long headSequence() {
+            return head;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+    
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+        
+        LimitedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read > 0) remaining -= read;
+            return read;
+        }
+    }
+    
+    // Serves a cache's feed to followers on the loopback interface. It only reads the feed and
+    // data files, so it can run inside the leader's process or next to it.
+    static class Server implements Closeable {
+        private final Path feedPath;
+        private final Path dataPath;
+        private final ServerSocket serverSocket;
+        private volatile boolean running = true;
+        
+        Server(String cacheBasePath, int port) throws IOException {
+            this.feedPath = Paths.get(cacheBasePath + ".feed");
+            this.dataPath = Paths.get(cacheBasePath + ".dat");
+            if (!Files.exists(feedPath)) throw new FileNotFoundException("Cache has no change feed: " + feedPath);
+            serverSocket = new ServerSocket(port, 16, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(this::accept, "feed-server");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+        
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+        
+        private void accept() {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    Thread client = new Thread(() -> serve(socket), "feed-client-" + socket.getPort());
+                    client.setDaemon(true);
+                    client.start();
+                } catch (IOException e) {
+                    if (running) System.err.println("Feed server: " + e.getMessage());
+                }
+            }
+        }
+        
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                long epoch = in.readLong();
+                long from = in.readLong();
+                FileSource source;
+                try {
+                    source = new FileSource(feedPath, dataPath, epoch, from - 1);
+                } catch (IOException e) {
+                    out.writeByte('E');
+                    out.writeUTF(e.getMessage());
+                    out.flush();
+                    return;
+                }
+                
+                try (FileSource changes = source) {
+                    out.writeByte('O');
+                    out.writeLong(changes.epoch());
+                    out.flush();
+                    byte[] chunk = new byte[64 * 1024];
+                    while (running) {
+                        Change change = changes.next(500);
+                        long head = changes.headSequence();
+                        if (change == null) {
+                            out.writeByte(FRAME_HEARTBEAT);
+                            out.writeLong(head);
+                            out.flush();
+                            continue;
+                        }
+                        out.writeByte(FRAME_CHANGE);
+                        out.writeLong(head);
+                        out.writeLong(change.sequence);
+                        out.writeLong(change.timeMillis);
+                        out.writeByte(change.type);
+                        out.writeInt(change.indexId);
+                        out.writeInt(change.fileId);
+                        out.writeInt(change.container);
+                        out.writeInt(change.nameHash);
+                        out.writeInt(change.crc);
+                        out.writeLong(change.length);
+                        if (change.payload != null) {
+                            for (int read; (read = change.payload.read(chunk, 0, chunk.length)) > 0; ) {
+                                out.write(chunk, 0, read);
+                            }
+                        }
+                        // Batch frames while the follower is behind, push immediately once caught up
+                        if (change.sequence >= head) out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                // Follower went away
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            running = false;
+            serverSocket.close();
+        }
+    }
+}
+
+// Keeps a cache in step with a leader's change feed: changes are applied through batches of up
+// to batchSize and the last applied sequence is kept in <base>.feedpos, so a restart resumes
+// where it stopped. Applying a change twice leaves the same result, so a follower seeded from a
+// backup may start from any earlier point of the same feed epoch.
+class CacheFollower {
+    private final GameCache cache;
+    private final Path positionFile;
+    private final int batchSize;
+    private volatile boolean running = true;
+    private long epoch;
+    private volatile long applied;
+    private volatile long head;
+    private volatile long lastChangeMillis;
+    private volatile long appliedCount;
+    
+    CacheFollower(GameCache cache, String basePath, int batchSize) throws IOException {
+        this.cache = cache;
+        this.positionFile = Paths.get(basePath + ".feedpos");
+        this.batchSize = batchSize;
+        if (Files.exists(positionFile)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(positionFile))) {
+                epoch = in.readLong();
+                applied = in.readLong();
+            }
+        }
+    }
+    
+    long getEpoch() {
+        return epoch;
+    }
+    
+    long getApplied() {
+        return applied;
+    }
+    
+    // Applies changes until stop() is called or the source fails
+    void run(ChangeFeed.Source source) throws IOException, InterruptedException {
+        epoch = source.epoch();
+        try (GameCache.Batch batch = cache.batch()) {
+            int pending = 0;
+            long pendingSequence = applied;
+            while (running) {
+                // Commit as soon as the source has nothing more ready, so lag stays low when idle
+                ChangeFeed.Change change = source.next(pending > 0 ? 0 : 200);
+                if (change == null) {
+                    if (pending > 0) {
+                        commit(batch, pendingSequence, pending);
+                        pending = 0;
+                    }
+                    head = Math.max(head, source.headSequence());
+                    continue;
+                }
+                if (change.type == ChangeFeed.RESET) {
+                    if (pending > 0) commit(batch, pendingSequence, pending);
+                    throw ChangeFeed.reseed("Leader data was relaid out or restored");
+                }
+                
+                if (change.type == ChangeFeed.PUT) {
+                    CheckedInputStream payload = new CheckedInputStream(change.payload, new CRC32());
+                    batch.put(change.indexId, change.fileId, payload, change.length, change.container, change.nameHash);
+                    if ((int) payload.getChecksum().getValue() != change.crc) {
+                        throw ChangeFeed.reseed("File " + change.fileId + " in archive " + change.indexId
+                            + " changed on the leader after it was logged");
+                    }
+                } else {
+                    batch.remove(change.indexId, change.fileId);
+                }
+                pending++;
+                pendingSequence = change.sequence;
+                lastChangeMillis = change.timeMillis;
+                if (pending >= batchSize) {
+                    head = Math.max(head, source.headSequence());
+                    commit(batch, pendingSequence, pending);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) commit(batch, pendingSequence, pending);
+        } finally {
+            source.close();
+        }
+    }
+    
+    private void commit(GameCache.Batch batch, long sequence, int count) throws IOException {
+        batch.commit();
+        applied = sequence;
+        appliedCount += count;
+        Path temp = Paths.get(positionFile + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeLong(epoch);
+            out.writeLong(sequence);
+        }
+        Files.move(temp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    void stop() {
+        running = false;
+    }
+    
+    long recordsBehind() {
+        return Math.max(0, head - applied);
+    }
+    
+    // How old the last applied change is while the follower is behind; 0 when caught up
+    long lagMillis() {
+        return recordsBehind() > 0 ? System.currentTimeMillis() - lastChangeMillis : 0;
+    }
+    
+    String status() {
+        return String.format("Applied through #%,d (%,d changes this run), %,d behind, lag %,d ms",
+            applied, appliedCount, recordsBehind(), lagMillis());
+    }
 }
@@ -1,26 +1,90 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableColumn;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
 
 public class Recent extends JFrame {
     private JTable table;
-    private DefaultTableModel tableModel;
+    private FileTableModel tableModel;
     private JButton refreshButton;
+    private JButton rescanButton;
+    private JButton cancelButton;
+    private JButton rulesButton;
+    private JComboBox<String> limitBox;
+    private JComboBox<String> windowBox;
+    private JCheckBox liveBox;
+    private JTextField searchField;
+    private JTextField fromField;
+    private JTextField toField;
+    private Timer searchTimer;
     private JLabel statusLabel;
-    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
     private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // Directory listing is I/O bound, so the walk uses more threads than cores; -Drecent.threads overrides
+    private final ForkJoinPool scanPool = new ForkJoinPool(Integer.getInteger("recent.threads",
+        Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+    // How often scan results are published to the table while a scan runs
+    private static final int PUBLISH_INTERVAL_MS = 100;
+    private AtomicBoolean currentScanCancelled;
+    // Top-N and time-window choices; 0 means no limit
+    private static final int[] LIMITS = {0, 100, 1000, 10000};
+    private static final int[] WINDOW_DAYS = {0, 1, 7, 30, 365};
+    private int[] maxWidths;
+    // Directory listings from the last complete scan, reused by the next refresh; -Drecent.index moves the file
+    private final Path indexFile = Paths.get(System.getProperty("recent.index",
+        Paths.get(System.getProperty("user.home"), ".recent-index").toString()));
+    private volatile Map<String, DirRecord> lastIndex;
+    private final Path scanRoot = Paths.get(System.getProperty("user.home")); // Default to user home directory
+    private volatile ScanRules scanRules;
+    // Live mode watches at most this many directories (inotify's per-user limit is often 8192) and polls when over it
+    private static final int MAX_WATCHES = Integer.getInteger("recent.maxWatches", 4096);
+    private static final int POLL_INTERVAL_MS = Integer.getInteger("recent.pollSeconds", 60) * 1000;
+    private RecentFilter currentFilter;
+    private DirectoryWatcher watcher;
+    private Timer pollTimer;
 
     public Recent() {
         // Set up the JFrame
@@ -30,10 +94,20 @@ public class Recent extends JFrame {
         setLocationRelativeTo(null);
 
         // Initialize table model
-        String[] columns = {"Name", "Type", "Created", "Modified", "Path"};
-        tableModel = new DefaultTableModel(columns, 0);
+        tableModel = new FileTableModel();
         table = new JTable(tableModel);
-        table.setAutoCreateRowSorter(true);
+        // No row sorter: the model sorts itself, so new batches never trigger a re-sort of every row
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.convertColumnIndexToModel(table.getTableHeader().columnAtPoint(e.getPoint()));
+                if (column >= 0) {
+                    tableModel.sortBy(column);
+                    updateSortHeaders();
+                }
+            }
+        });
+        updateSortHeaders();
 
         // Center text in Type, Created, and Modified columns
         DefaultTableCellRenderer centerRenderer = new DefaultTableCellRenderer();
@@ -46,113 +120,1718 @@ public class Recent extends JFrame {
         JPanel mainPanel = new JPanel(new BorderLayout());
         mainPanel.add(new JScrollPane(table), BorderLayout.CENTER);
 
+        // Search box and modified-date range (yyyy-MM-dd, either end may be left empty)
+        searchField = new JTextField(20);
+        fromField = new JTextField(8);
+        toField = new JTextField(8);
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+        searchPanel.add(new JLabel("Modified from:"));
+        searchPanel.add(fromField);
+        searchPanel.add(new JLabel("to:"));
+        searchPanel.add(toField);
+        mainPanel.add(searchPanel, BorderLayout.NORTH);
+
         // Refresh button and status label
         refreshButton = new JButton("Refresh");
+        rescanButton = new JButton("Full Rescan");
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        rulesButton = new JButton("Rules...");
+        limitBox = new JComboBox<>(new String[]{"All files", "Newest 100", "Newest 1000", "Newest 10000"});
+        windowBox = new JComboBox<>(new String[]{"Any time", "Last day", "Last 7 days", "Last 30 days", "Last year"});
+        liveBox = new JCheckBox("Live");
         statusLabel = new JLabel("Ready");
         JPanel bottomPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         bottomPanel.add(refreshButton);
+        bottomPanel.add(rescanButton);
+        bottomPanel.add(cancelButton);
+        bottomPanel.add(rulesButton);
+        bottomPanel.add(limitBox);
+        bottomPanel.add(windowBox);
+        bottomPanel.add(liveBox);
         bottomPanel.add(statusLabel);
         mainPanel.add(bottomPanel, BorderLayout.SOUTH);
 
         add(mainPanel);
 
         // Refresh button action
-        refreshButton.addActionListener(e -> refreshFileList());
+        refreshButton.addActionListener(e -> refreshFileList(true));
+        rescanButton.addActionListener(e -> refreshFileList(false));
+        rulesButton.addActionListener(e -> editRules());
+        cancelButton.addActionListener(e -> {
+            if (currentScanCancelled != null) {
+                currentScanCancelled.set(true);
+                cancelButton.setEnabled(false);
+                statusLabel.setText("Cancelling... " + tableModel.getRowCount() + " items found.");
+            }
+        });
+
+        liveBox.addActionListener(e -> {
+            if (!liveBox.isSelected()) {
+                stopLive();
+                statusLabel.setText(tableModel.getRowCount() + " items.");
+            } else if (currentScanCancelled == null) {
+                startLive();
+            }
+        });
+
+        // Apply the filter once typing pauses
+        searchTimer = new Timer(150, e -> applyFilter());
+        searchTimer.setRepeats(false);
+        DocumentListener filterListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        };
+        searchField.getDocument().addDocumentListener(filterListener);
+        fromField.getDocument().addDocumentListener(filterListener);
+        toField.getDocument().addDocumentListener(filterListener);
+
+        try {
+            scanRules = ScanRules.fromProperties(scanRoot);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error in scan rules: " + ex.getMessage());
+            try {
+                scanRules = new ScanRules(scanRoot, ScanRules.DEFAULT_EXCLUDES, "", 0, false, false);
+            } catch (IOException unexpected) {
+                throw new IllegalStateException(unexpected);
+            }
+        }
 
         // Initial population of the table
-        refreshFileList();
+        refreshFileList(true);
     }
 
-    private void refreshFileList() {
-        tableModel.setRowCount(0); // Clear existing rows
+    // An incremental refresh reuses the listing of every directory whose mtime is unchanged since the
+    // last scan, so it skips the readdir but still stats each entry and sees files edited in place.
+    private void refreshFileList(boolean incremental) {
+        int limit = LIMITS[limitBox.getSelectedIndex()];
+        int days = WINDOW_DAYS[windowBox.getSelectedIndex()];
+        long cutoff = days == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+        stopLive();
+        tableModel.clear(limit);
+        maxWidths = new int[tableModel.getColumnCount()];
         statusLabel.setText("Scanning...");
         refreshButton.setEnabled(false);
+        rescanButton.setEnabled(false);
+        rulesButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+
+        AtomicBoolean cancelled = new AtomicBoolean();
+        currentScanCancelled = cancelled;
+        ConcurrentLinkedQueue<FileInfo> found = new ConcurrentLinkedQueue<>();
+        RecentFilter filter = new RecentFilter(limit, cutoff, found::add);
+        currentFilter = filter;
+
+        // Publish whatever the workers found since the last tick, so rows appear while the scan runs
+        Timer publisher = new Timer(PUBLISH_INTERVAL_MS, e -> {
+            publishBatch(found);
+            statusLabel.setText("Scanning... " + scanProgress(filter));
+        });
+        publisher.start();
 
         // Run file scanning in a separate thread to keep GUI responsive
         executor.submit(() -> {
+            Exception failure = null;
+            long startNanos = System.nanoTime();
+            ScanContext context = null;
+            try {
+                ScanRules rules = scanRules;
+                Map<String, DirRecord> previous = Collections.emptyMap();
+                boolean bounded = limit > 0;
+                if (bounded) {
+                    // The index holds every listing, so a top-N scan neither loads nor keeps it;
+                    // memory stays O(N) at the price of a full walk each time
+                    lastIndex = null;
+                } else if (incremental) {
+                    if (lastIndex == null) {
+                        lastIndex = ScanIndex.load(indexFile, rules);
+                    }
+                    previous = lastIndex;
+                }
+                context = new ScanContext(rules, filter, cancelled, previous, !bounded);
+                scanPool.invoke(ScanTask.forRoot(rules.root, context));
+                if (!cancelled.get() && !bounded) {
+                    lastIndex = context.current;
+                    try {
+                        ScanIndex.save(indexFile, rules, context.current);
+                    } catch (IOException ex) {
+                        System.err.println("Error saving scan index " + indexFile + ": " + ex.getMessage());
+                    }
+                }
+            } catch (Exception ex) {
+                failure = ex;
+            }
+            Exception error = failure;
+            ScanContext finished = context;
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+            // Update table on EDT
+            SwingUtilities.invokeLater(() -> {
+                publisher.stop();
+                publishBatch(found);
+                if (limit > 0) {
+                    // The worker heaps hold the authoritative top N
+                    tableModel.setRows(filter.newest());
+                }
+                if (error != null) {
+                    statusLabel.setText("Error: " + error.getMessage());
+                } else if (cancelled.get()) {
+                    statusLabel.setText("Scan cancelled. " + scanProgress(filter));
+                } else if (finished.current == null) {
+                    statusLabel.setText("Scan complete. " + scanProgress(filter) + " " + elapsedMillis + " ms.");
+                } else {
+                    statusLabel.setText("Scan complete. " + scanProgress(filter) + " " + finished.reused.sum()
+                        + " of " + finished.current.size() + " folders unchanged, " + elapsedMillis + " ms.");
+                }
+                if (currentScanCancelled == cancelled) {
+                    currentScanCancelled = null;
+                }
+                refreshButton.setEnabled(true);
+                rescanButton.setEnabled(true);
+                rulesButton.setEnabled(true);
+                cancelButton.setEnabled(false);
+                if (error == null && !cancelled.get() && liveBox.isSelected()) {
+                    startLive();
+                }
+            });
+        });
+    }
+
+    // Watches the directories of the last complete scan and applies changes to the model in place.
+    // Directories beyond the watch limit are covered by periodic incremental rescans instead; those
+    // re-stat every saved entry, so a file edited in place in an unwatched folder shows up on the next poll.
+    // A top-N scan keeps no directory list to watch, so it only polls.
+    private void startLive() {
+        stopLive();
+        Map<String, DirRecord> index = lastIndex;
+        if (index != null) {
+            try {
+                watcher = new DirectoryWatcher(scanRules, scanPool, MAX_WATCHES,
+                    changes -> SwingUtilities.invokeLater(() -> applyChanges(changes)));
+                watcher.start(index.keySet());
+            } catch (IOException | UnsupportedOperationException ex) {
+                System.err.println("Error starting directory watcher: " + ex.getMessage());
+            }
+        }
+        pollTimer = new Timer(POLL_INTERVAL_MS, e -> {
+            if (watcher == null || watcher.isOverLimit()) {
+                pollRescan();
+            }
+        });
+        pollTimer.start();
+        statusLabel.setText("Live. " + tableModel.getRowCount() + " items.");
+    }
+
+    private void stopLive() {
+        if (watcher != null) {
+            watcher.stop();
+            watcher = null;
+        }
+        if (pollTimer != null) {
+            pollTimer.stop();
+            pollTimer = null;
+        }
+    }
+
+    // Runs on the EDT with a coalesced batch from the watcher
+    private void applyChanges(DirectoryWatcher.Changes changes) {
+        if (watcher == null || currentScanCancelled != null) {
+            return;
+        }
+        List<FileInfo> fresh = new ArrayList<>();
+        for (FileInfo file : changes.updated) {
+            if (currentFilter.inWindow(file)) {
+                fresh.add(file);
+            }
+        }
+        tableModel.update(changes.removed, changes.updated, fresh);
+        String watching = watcher.isOverLimit()
+            ? ", watching " + watcher.getWatchCount() + " folders and polling the rest."
+            : ", watching " + watcher.getWatchCount() + " folders.";
+        statusLabel.setText("Live. " + tableModel.getRowCount() + " items" + watching);
+        if (changes.overflow) {
+            pollRescan();
+        }
+    }
+
+    // Incremental rescan that replaces the rows in one step instead of clearing the table. Unwatched folders
+    // get no modify events, so only the readdir is skipped; every file's times come from a fresh stat.
+    private void pollRescan() {
+        if (currentScanCancelled != null) {
+            return;
+        }
+        RecentFilter previousFilter = currentFilter;
+        List<FileInfo> found = Collections.synchronizedList(new ArrayList<>());
+        RecentFilter filter = new RecentFilter(previousFilter.limit, previousFilter.cutoffMillis, found::add);
+        boolean bounded = filter.limit > 0;
+        executor.submit(() -> {
+            Map<String, DirRecord> previous = bounded || lastIndex == null ? Collections.emptyMap() : lastIndex;
+            ScanContext context = new ScanContext(scanRules, filter, new AtomicBoolean(), previous, !bounded);
             try {
-                List<FileInfo> fileList = new ArrayList<>();
-                String startPath = System.getProperty("user.home"); // Default to user home directory
-                scanDirectory(Paths.get(startPath), fileList);
-
-                // Sort by modification time, newest first
-                fileList.sort(Comparator.comparing(FileInfo::getModifiedTime).reversed());
-
-                // Update table on EDT
-                SwingUtilities.invokeLater(() -> {
-                    // Track maximum content length for each column
-                    int[] maxWidths = new int[tableModel.getColumnCount()];
-                    FontMetrics fontMetrics = table.getFontMetrics(table.getFont());
-
-                    // Add rows and calculate max content width
-                    for (FileInfo file : fileList) {
-                        String[] rowData = new String[]{
-                            file.getName(),
-                            file.isDirectory() ? "Folder" : "File",
-                            formatTime(file.getCreatedTime()),
-                            formatTime(file.getModifiedTime()),
-                            file.getPath()
-                        };
-                        tableModel.addRow(rowData);
-
-                        // Update max widths based on content
-                        for (int i = 0; i < rowData.length; i++) {
-                            int width = fontMetrics.stringWidth(rowData[i] != null ? rowData[i] : "");
-                            maxWidths[i] = Math.max(maxWidths[i], width);
+                scanPool.invoke(ScanTask.forRoot(scanRoot, context));
+            } catch (IOException | RuntimeException ex) {
+                System.err.println("Error rescanning " + scanRoot + ": " + ex.getMessage());
+                return;
+            }
+            if (!bounded) {
+                lastIndex = context.current;
+            }
+            List<FileInfo> rows = new ArrayList<>(bounded ? filter.newest() : found);
+            rows.sort(NEWEST_FIRST);
+            SwingUtilities.invokeLater(() -> {
+                if (pollTimer == null || currentScanCancelled != null || currentFilter != previousFilter) {
+                    return;
+                }
+                tableModel.setRows(rows);
+                if (watcher != null) {
+                    watcher.watchAll(context.current.keySet());
+                }
+                statusLabel.setText("Live. " + tableModel.getRowCount() + " items.");
+            });
+        });
+    }
+
+    // Rule changes take effect on the next scan; the saved index was built under the old rules, so it's dropped
+    private void editRules() {
+        ScanRules rules = scanRules;
+        JTextField excludeField = new JTextField(rules.excludes, 30);
+        JTextField includeField = new JTextField(rules.includes, 30);
+        JSpinner depthSpinner = new JSpinner(new SpinnerNumberModel(
+            rules.maxDepth == Integer.MAX_VALUE ? 0 : rules.maxDepth, 0, 1000, 1));
+        JCheckBox hiddenBox = new JCheckBox("Skip hidden files and folders", rules.skipHidden);
+        JCheckBox sameFsBox = new JCheckBox("Stay on the same file system", rules.sameFileSystem);
+        JPanel panel = new JPanel(new GridLayout(0, 2, 4, 4));
+        panel.add(new JLabel("Exclude (comma-separated globs):"));
+        panel.add(excludeField);
+        panel.add(new JLabel("Only show files matching:"));
+        panel.add(includeField);
+        panel.add(new JLabel("Max depth (0 = unlimited):"));
+        panel.add(depthSpinner);
+        panel.add(hiddenBox);
+        panel.add(sameFsBox);
+        if (JOptionPane.showConfirmDialog(this, panel, "Scan Rules", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+            return;
+        }
+        try {
+            scanRules = new ScanRules(scanRoot, excludeField.getText(), includeField.getText(),
+                (Integer) depthSpinner.getValue(), hiddenBox.isSelected(), sameFsBox.isSelected());
+        } catch (IOException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, "Invalid rules: " + ex.getMessage(), "Scan Rules",
+                JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        lastIndex = null;
+        refreshFileList(true);
+    }
+
+    // Marks the sorted column's header with the direction
+    private void updateSortHeaders() {
+        for (int column = 0; column < tableModel.getColumnCount(); column++) {
+            String name = tableModel.getColumnName(column);
+            if (column == tableModel.getSortColumn()) {
+                name += tableModel.isAscending() ? " \u25B2" : " \u25BC";
+            }
+            table.getColumnModel().getColumn(table.convertColumnIndexToView(column)).setHeaderValue(name);
+        }
+        table.getTableHeader().repaint();
+    }
+
+    private void applyFilter() {
+        long from = parseDay(fromField, 0, Long.MIN_VALUE);
+        long to = parseDay(toField, 1, Long.MAX_VALUE);
+        long startNanos = System.nanoTime();
+        tableModel.setFilter(searchField.getText().trim(), from, to == Long.MAX_VALUE ? to : to - 1);
+        if (tableModel.isFiltered()) {
+            statusLabel.setText(tableModel.getRowCount() + " of " + tableModel.getTotalCount() + " items match ("
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms).");
+        } else {
+            statusLabel.setText(tableModel.getRowCount() + " items.");
+        }
+    }
+
+    // Start of the given day plus offsetDays, or the fallback when the field is empty or invalid
+    private static long parseDay(JTextField field, int offsetDays, long fallback) {
+        String text = field.getText().trim();
+        field.setBackground(UIManager.getColor("TextField.background"));
+        if (text.isEmpty()) {
+            return fallback;
+        }
+        try {
+            return LocalDate.parse(text).plusDays(offsetDays).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            field.setBackground(Color.PINK);
+            return fallback;
+        }
+    }
+
+    private String scanProgress(RecentFilter filter) {
+        long examined = filter.getExamined();
+        if (examined == tableModel.getRowCount()) {
+            return examined + " items found.";
+        }
+        return tableModel.getRowCount() + " of " + examined + " items shown.";
+    }
+
+    // Drains pending results into the model and widens columns to fit them. Runs on the EDT.
+    private void publishBatch(ConcurrentLinkedQueue<FileInfo> found) {
+        List<FileInfo> batch = new ArrayList<>();
+        FileInfo file;
+        while ((file = found.poll()) != null) {
+            batch.add(file);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        tableModel.merge(batch);
+
+        // Track maximum content length for each column
+        FontMetrics fontMetrics = table.getFontMetrics(table.getFont());
+        for (FileInfo info : batch) {
+            for (int i = 0; i < maxWidths.length; i++) {
+                Object value = FileTableModel.valueFor(info, i);
+                int width = fontMetrics.stringWidth(value != null ? value.toString() : "");
+                maxWidths[i] = Math.max(maxWidths[i], width);
+            }
+        }
+
+        // Adjust column widths based on content
+        for (int i = 0; i < tableModel.getColumnCount(); i++) {
+            TableColumn column = table.getColumnModel().getColumn(i);
+            // Add padding (20 pixels) to max content width
+            int width = maxWidths[i] + 20;
+            // Ensure minimum width for readability
+            width = Math.max(width, fontMetrics.stringWidth(tableModel.getColumnName(i)) + 20);
+            column.setPreferredWidth(width);
+        }
+    }
+
+    // Rows kept newest first as columns: times in long[], the folder flag in a packed bit column and each
+    // path as (parent directory, name) ids into a PathTable, about 24 bytes a row. Batches are merged in
+    // place; with a limit only the newest rows are kept. A search and date range narrow the rows to a view.
+    // Sorting by Modified reads that order backwards; other columns sort the view when their header is clicked.
+    private static class FileTableModel extends AbstractTableModel {
+        private static final String[] COLUMNS = {"Name", "Type", "Created", "Modified", "Path"};
+        private static final int MODIFIED = 3;
+        private PathTable paths = new PathTable();
+        private int size;
+        private int[] parents = new int[0];
+        private int[] names = new int[0];
+        private long[] createdTimes = new long[0];
+        private long[] modifiedTimes = new long[0];
+        private FlagColumn directories = new FlagColumn();
+        private int limit;
+        private String query = "";
+        private long fromMillis = Long.MIN_VALUE;
+        private long toMillis = Long.MAX_VALUE;
+        private int[] view;
+        private int viewSize;
+        private int sortColumn = MODIFIED;
+        private boolean ascending;
+        // Positions in the view, in sortColumn's order; rebuilt on first use after the rows change
+        private int[] order;
+
+        void clear(int limit) {
+            this.limit = limit;
+            reset();
+            fireTableDataChanged();
+        }
+
+        void setRows(List<FileInfo> newest) {
+            reset();
+            merge(new ArrayList<>(newest));
+        }
+
+        private void reset() {
+            paths = new PathTable();
+            size = 0;
+            view = null;
+            viewSize = 0;
+            order = null;
+            parents = new int[0];
+            names = new int[0];
+            createdTimes = new long[0];
+            modifiedTimes = new long[0];
+            directories = new FlagColumn();
+        }
+
+        // Drops rows for removed paths (and everything under them) and for updated paths, then merges
+        // the fresh rows back in. One pass over the rows per coalesced batch.
+        void update(Set<String> removed, List<FileInfo> updated, List<FileInfo> fresh) {
+            Set<Long> stale = new HashSet<>();
+            Set<Integer> removedDirs = new HashSet<>();
+            for (String path : removed) {
+                long key = paths.find(Paths.get(path));
+                if (key >= 0) {
+                    stale.add(key);
+                }
+                int dir = paths.findDir(Paths.get(path));
+                if (dir >= 0) {
+                    removedDirs.add(dir);
+                }
+            }
+            for (FileInfo file : updated) {
+                long key = paths.find(Paths.get(file.getPath()));
+                if (key >= 0) {
+                    stale.add(key);
+                }
+            }
+            int kept = 0;
+            for (int row = 0; row < size; row++) {
+                if (stale.contains(PathTable.key(parents[row], names[row]))
+                        || (!removedDirs.isEmpty() && paths.isUnder(parents[row], removedDirs))) {
+                    continue;
+                }
+                parents[kept] = parents[row];
+                names[kept] = names[row];
+                createdTimes[kept] = createdTimes[row];
+                modifiedTimes[kept] = modifiedTimes[row];
+                directories.set(kept, directories.get(row));
+                kept++;
+            }
+            directories.clear(kept, Math.max(kept, size));
+            size = kept;
+            view = null;
+            merge(new ArrayList<>(fresh));
+        }
+
+        // Merges in place from the oldest end: each batch row is placed after a binary search, and only
+        // the rows older than it are shifted (one arraycopy per run), so untouched newer rows are never copied
+        void merge(List<FileInfo> batch) {
+            if (limit > 0 && size >= limit) {
+                // Rows no newer than the last kept one would be cut off again straight away
+                long oldestKept = modifiedTimes[size - 1];
+                batch.removeIf(file -> millis(file.getModifiedTime()) <= oldestKept);
+            }
+            if (batch.isEmpty()) {
+                // Still refresh the view: update() and setRows() may have dropped rows before calling in
+                refilter();
+                fireTableDataChanged();
+                return;
+            }
+            batch.sort(NEWEST_FIRST);
+            ensureCapacity(size + batch.size());
+            Map<Path, Integer> parentCache = new HashMap<>();
+            int unmoved = size;
+            int out = size + batch.size();
+            for (int j = batch.size() - 1; j >= 0; j--) {
+                FileInfo next = batch.get(j);
+                long modified = millis(next.getModifiedTime());
+                // A new row goes after existing rows of the same time
+                int position = firstRowOlderThan(modified, unmoved);
+                int run = unmoved - position;
+                moveRows(position, out - run, run);
+                out -= run + 1;
+                unmoved = position;
+
+                Path parent = Paths.get(next.getPath()).getParent();
+                Integer dir = parentCache.get(parent);
+                if (dir == null) {
+                    dir = paths.dir(parent);
+                    parentCache.put(parent, dir);
+                }
+                parents[out] = dir;
+                names[out] = paths.segment(next.getName());
+                createdTimes[out] = millis(next.getCreatedTime());
+                modifiedTimes[out] = modified;
+                directories.set(out, next.isDirectory());
+            }
+            size += batch.size();
+            if (limit > 0 && size > limit) {
+                directories.clear(limit, size);
+                size = limit;
+            }
+            refilter();
+            fireTableDataChanged();
+        }
+
+        private int firstRowOlderThan(long millis, int end) {
+            int low = 0;
+            int high = end;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (modifiedTimes[mid] >= millis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // Moves rows to a higher position; overlapping ranges are fine
+        private void moveRows(int from, int to, int count) {
+            if (count == 0 || from == to) {
+                return;
+            }
+            System.arraycopy(parents, from, parents, to, count);
+            System.arraycopy(names, from, names, to, count);
+            System.arraycopy(createdTimes, from, createdTimes, to, count);
+            System.arraycopy(modifiedTimes, from, modifiedTimes, to, count);
+            directories.moveUp(from, to, count);
+        }
+
+        private void ensureCapacity(int needed) {
+            if (needed <= parents.length) {
+                return;
+            }
+            int capacity = Math.max(needed, Math.max(1024, parents.length * 2));
+            parents = Arrays.copyOf(parents, capacity);
+            names = Arrays.copyOf(names, capacity);
+            createdTimes = Arrays.copyOf(createdTimes, capacity);
+            modifiedTimes = Arrays.copyOf(modifiedTimes, capacity);
+        }
+
+        void setFilter(String query, long fromMillis, long toMillis) {
+            this.query = query;
+            this.fromMillis = fromMillis;
+            this.toMillis = toMillis;
+            refilter();
+            fireTableDataChanged();
+        }
+
+        boolean isFiltered() {
+            return view != null;
+        }
+
+        int getTotalCount() {
+            return size;
+        }
+
+        private void refilter() {
+            order = null;
+            if (query.isEmpty() && fromMillis == Long.MIN_VALUE && toMillis == Long.MAX_VALUE) {
+                view = null;
+                return;
+            }
+            // Rows are newest first, so the range is [first row not newer than toMillis, first row older than fromMillis)
+            int first = firstRowAtOrBefore(toMillis);
+            int end = fromMillis == Long.MIN_VALUE ? size : firstRowAtOrBefore(fromMillis - 1);
+            int[] rows = new int[Math.max(0, end - first)];
+            int count = 0;
+            if (query.isEmpty()) {
+                for (int row = first; row < end; row++) {
+                    rows[count++] = row;
+                }
+            } else {
+                // A query spanning segments is narrowed by its longest piece, then checked on the rebuilt path
+                String longest = "";
+                for (String piece : query.split(Pattern.quote(File.separator))) {
+                    if (piece.length() > longest.length()) {
+                        longest = piece;
+                    }
+                }
+                boolean spansSegments = !longest.equals(query);
+                BitSet segmentMatches = longest.isEmpty() ? null : paths.matchSegments(longest);
+                BitSet dirMatches = longest.isEmpty() ? null : paths.matchDirs(segmentMatches);
+                for (int row = first; row < end; row++) {
+                    if (segmentMatches != null && !segmentMatches.get(names[row]) && !dirMatches.get(parents[row])) {
+                        continue;
+                    }
+                    if (!spansSegments || PathTable.containsIgnoreCase(paths.path(parents[row], names[row]), query)) {
+                        rows[count++] = row;
+                    }
+                }
+            }
+            view = rows;
+            viewSize = count;
+        }
+
+        private int firstRowAtOrBefore(long millis) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (modifiedTimes[mid] > millis) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        static Object valueFor(FileInfo file, int column) {
+            switch (column) {
+                case 0: return file.getName();
+                case 1: return file.isDirectory() ? "Folder" : "File";
+                case 2: return formatTime(millis(file.getCreatedTime()));
+                case 3: return formatTime(millis(file.getModifiedTime()));
+                default: return file.getPath();
+            }
+        }
+
+        @Override
+        public int getRowCount() {
+            return view != null ? viewSize : size;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        // Clicking the sorted column again flips its direction; Modified starts newest first, the rest ascending
+        void sortBy(int column) {
+            ascending = column == sortColumn ? !ascending : column != MODIFIED;
+            sortColumn = column;
+            order = null;
+            fireTableDataChanged();
+        }
+
+        int getSortColumn() {
+            return sortColumn;
+        }
+
+        boolean isAscending() {
+            return ascending;
+        }
+
+        // Sorts view positions by an int key per row; ties keep the newest-first order
+        private int[] sortedOrder() {
+            if (order == null) {
+                int[] keys = sortKeys(getRowCount());
+                long[] packed = new long[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    packed[i] = ((long) (ascending ? keys[i] : -keys[i]) << 32) | i;
+                }
+                Arrays.sort(packed);
+                order = new int[packed.length];
+                for (int i = 0; i < packed.length; i++) {
+                    order[i] = (int) packed[i];
+                }
+            }
+            return order;
+        }
+
+        // Keys are ranks, so one primitive sort covers every column. Path sorts by folder, then name.
+        private int[] sortKeys(int count) {
+            int[] keys = new int[count];
+            if (sortColumn == 1) {
+                for (int i = 0; i < count; i++) {
+                    keys[i] = directories.get(view != null ? view[i] : i) ? 1 : 0;
+                }
+                return keys;
+            }
+            BitSet usedNames = new BitSet();
+            BitSet usedDirs = new BitSet();
+            for (int i = 0; i < count; i++) {
+                int row = view != null ? view[i] : i;
+                usedNames.set(names[row]);
+                usedDirs.set(parents[row]);
+            }
+            int[] nameRanks = sortColumn == 2 ? null : rank(usedNames, paths::segmentAt);
+            int[] dirRanks = sortColumn == 4 ? rank(usedDirs, paths::dirPath) : null;
+            long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                int row = view != null ? view[i] : i;
+                values[i] = sortColumn == 0 ? nameRanks[names[row]]
+                    : sortColumn == 2 ? createdTimes[row]
+                    : ((long) dirRanks[parents[row]] << 32) | nameRanks[names[row]];
+            }
+            long[] distinct = values.clone();
+            Arrays.sort(distinct);
+            int unique = 0;
+            for (int i = 0; i < distinct.length; i++) {
+                if (unique == 0 || distinct[i] != distinct[unique - 1]) {
+                    distinct[unique++] = distinct[i];
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                keys[i] = Arrays.binarySearch(distinct, 0, unique, values[i]);
+            }
+            return keys;
+        }
+
+        // Case-insensitive rank of each id the view uses, so a narrow view never sorts every interned name
+        private static int[] rank(BitSet used, IntFunction<String> text) {
+            int[] ids = new int[used.cardinality()];
+            String[] texts = new String[ids.length];
+            Integer[] positions = new Integer[ids.length];
+            for (int id = used.nextSetBit(0), i = 0; id >= 0; id = used.nextSetBit(id + 1), i++) {
+                ids[i] = id;
+                texts[i] = text.apply(id);
+                positions[i] = i;
+            }
+            Arrays.sort(positions, Comparator.comparing((Integer i) -> texts[i], String.CASE_INSENSITIVE_ORDER)
+                .thenComparing(i -> texts[i]));
+            int[] ranks = new int[ids.length == 0 ? 0 : ids[ids.length - 1] + 1];
+            for (int rank = 0; rank < positions.length; rank++) {
+                ranks[ids[positions[rank]]] = rank;
+            }
+            return ranks;
+        }
+
+        @Override
+        public Object getValueAt(int viewRow, int column) {
+            if (sortColumn != MODIFIED) {
+                viewRow = sortedOrder()[viewRow];
+            } else if (ascending) {
+                viewRow = getRowCount() - 1 - viewRow;
+            }
+            int row = view != null ? view[viewRow] : viewRow;
+            switch (column) {
+                case 0: return paths.segmentAt(names[row]);
+                case 1: return directories.get(row) ? "Folder" : "File";
+                case 2: return formatTime(createdTimes[row]);
+                case 3: return formatTime(modifiedTimes[row]);
+                default: return paths.path(parents[row], names[row]);
+            }
+        }
+    }
+
+    // Folder flags packed 64 to a long. Unlike java.util.BitSet it can shift a range of bits a word at
+    // a time, which merge needs when it makes room for new rows.
+    private static class FlagColumn {
+        private long[] words = new long[16];
+
+        boolean get(int index) {
+            return (words[index >>> 6] & (1L << index)) != 0;
+        }
+
+        void set(int index, boolean value) {
+            ensure(index);
+            if (value) {
+                words[index >>> 6] |= 1L << index;
+            } else {
+                words[index >>> 6] &= ~(1L << index);
+            }
+        }
+
+        void clear(int from, int to) {
+            for (int index = from; index < to; index++) {
+                set(index, false);
+            }
+        }
+
+        // Copies count bits from 'from' up to 'to', highest chunk first so overlapping ranges are safe
+        void moveUp(int from, int to, int count) {
+            ensure(to + count - 1);
+            int remaining = count;
+            while (remaining > 0) {
+                int n = Math.min(64, remaining);
+                remaining -= n;
+                write(to + remaining, n, read(from + remaining, n));
+            }
+        }
+
+        private long read(int position, int n) {
+            int word = position >>> 6;
+            int offset = position & 63;
+            long bits = words[word] >>> offset;
+            if (offset != 0 && offset + n > 64) {
+                bits |= words[word + 1] << (64 - offset);
+            }
+            return n == 64 ? bits : bits & ((1L << n) - 1);
+        }
+
+        private void write(int position, int n, long bits) {
+            long mask = n == 64 ? -1L : (1L << n) - 1;
+            int word = position >>> 6;
+            int offset = position & 63;
+            words[word] = (words[word] & ~(mask << offset)) | (bits << offset);
+            if (offset != 0 && offset + n > 64) {
+                int high = 64 - offset;
+                words[word + 1] = (words[word + 1] & ~(mask >>> high)) | (bits >>> high);
+            }
+        }
+
+        private void ensure(int index) {
+            int needed = (index >>> 6) + 1;
+            if (needed > words.length) {
+                words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+            }
+        }
+    }
+
+    // Interned path segments, and directories as (parent, segment) chains over them. A file's path is
+    // rebuilt from its parent directory id and name id only when it's displayed. Every segment's
+    // lower-cased trigrams are indexed as it's interned, which is what makes substring search cheap.
+    private static class PathTable {
+        private final List<String> segments = new ArrayList<>();
+        private final Map<String, Integer> segmentIds = new HashMap<>();
+        private final Map<Long, IntList> trigrams = new HashMap<>();
+        private final IntList shortSegments = new IntList();
+        private final Map<Long, Integer> dirIds = new HashMap<>();
+        private int[] dirParents = new int[16];
+        private int[] dirSegments = new int[16];
+        private int dirCount;
+
+        static long key(int parent, int segment) {
+            return ((long) parent << 32) | (segment & 0xFFFFFFFFL);
+        }
+
+        int segment(String name) {
+            Integer id = segmentIds.get(name);
+            if (id == null) {
+                id = segments.size();
+                segments.add(name);
+                segmentIds.put(name, id);
+                String lower = name.toLowerCase(Locale.ROOT);
+                if (lower.length() < 3) {
+                    shortSegments.add(id);
+                }
+                for (int i = 0; i + 3 <= lower.length(); i++) {
+                    IntList postings = trigrams.get(trigram(lower, i));
+                    if (postings == null) {
+                        postings = new IntList();
+                        trigrams.put(trigram(lower, i), postings);
+                    }
+                    // A repeated trigram within one name is only listed once
+                    if (postings.size == 0 || postings.values[postings.size - 1] != id) {
+                        postings.add(id);
+                    }
+                }
+            }
+            return id;
+        }
+
+        private static long trigram(String s, int i) {
+            return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+
+        // Segments containing the query, ignoring case. Queries of three or more characters only
+        // check the segments in the shortest posting list among the query's trigrams; shorter ones
+        // take the union of every trigram containing them, plus the few segments too short to index.
+        BitSet matchSegments(String query) {
+            BitSet matches = new BitSet(segments.size());
+            String lower = query.toLowerCase(Locale.ROOT);
+            if (lower.length() < 3) {
+                for (Map.Entry<Long, IntList> entry : trigrams.entrySet()) {
+                    long key = entry.getKey();
+                    String trigram = new String(new char[]{(char) (key >>> 32), (char) (key >>> 16), (char) key});
+                    if (trigram.contains(lower)) {
+                        IntList postings = entry.getValue();
+                        for (int i = 0; i < postings.size; i++) {
+                            matches.set(postings.values[i]);
                         }
                     }
+                }
+                for (int i = 0; i < shortSegments.size; i++) {
+                    if (containsIgnoreCase(segments.get(shortSegments.values[i]), lower)) {
+                        matches.set(shortSegments.values[i]);
+                    }
+                }
+                return matches;
+            }
+            IntList candidates = null;
+            for (int i = 0; i + 3 <= lower.length(); i++) {
+                IntList postings = trigrams.get(trigram(lower, i));
+                if (postings == null) {
+                    return matches;
+                }
+                if (candidates == null || postings.size < candidates.size) {
+                    candidates = postings;
+                }
+            }
+            for (int i = 0; i < candidates.size; i++) {
+                int id = candidates.values[i];
+                if (containsIgnoreCase(segments.get(id), lower)) {
+                    matches.set(id);
+                }
+            }
+            return matches;
+        }
+
+        // A directory matches when its own segment or any ancestor's does; parents always have lower ids
+        BitSet matchDirs(BitSet segmentMatches) {
+            BitSet matches = new BitSet(dirCount);
+            for (int id = 0; id < dirCount; id++) {
+                if (segmentMatches.get(dirSegments[id]) || (dirParents[id] >= 0 && matches.get(dirParents[id]))) {
+                    matches.set(id);
+                }
+            }
+            return matches;
+        }
+
+        static boolean containsIgnoreCase(String text, String query) {
+            for (int i = 0; i + query.length() <= text.length(); i++) {
+                if (text.regionMatches(true, i, query, 0, query.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String segmentAt(int id) {
+            return segments.get(id);
+        }
+
+        String dirPath(int dir) {
+            StringBuilder path = new StringBuilder();
+            appendDir(path, dir);
+            return path.toString();
+        }
+
+        // The root component (such as "/" or "C:\") is the first segment of every chain
+        int dir(Path dir) {
+            int id = child(-1, segment(dir.getRoot() != null ? dir.getRoot().toString() : ""));
+            for (Path name : dir) {
+                id = child(id, segment(name.toString()));
+            }
+            return id;
+        }
 
-                    // Adjust column widths based on content
-                    for (int i = 0; i < tableModel.getColumnCount(); i++) {
-                        TableColumn column = table.getColumnModel().getColumn(i);
-                        // Add padding (20 pixels) to max content width
-                        int width = maxWidths[i] + 20;
-                        // Ensure minimum width for readability
-                        width = Math.max(width, fontMetrics.stringWidth(tableModel.getColumnName(i)) + 20);
-                        column.setPreferredWidth(width);
+        private int child(int parent, int segment) {
+            long key = key(parent, segment);
+            Integer id = dirIds.get(key);
+            if (id == null) {
+                if (dirCount == dirParents.length) {
+                    dirParents = Arrays.copyOf(dirParents, dirCount * 2);
+                    dirSegments = Arrays.copyOf(dirSegments, dirCount * 2);
+                }
+                id = dirCount++;
+                dirParents[id] = parent;
+                dirSegments[id] = segment;
+                dirIds.put(key, id);
+            }
+            return id;
+        }
+
+        // Lookups that never intern; -1 when the path has no rows
+        int findDir(Path dir) {
+            Integer id = lookup(-1, dir.getRoot() != null ? dir.getRoot().toString() : "");
+            for (Path name : dir) {
+                if (id == null) {
+                    return -1;
+                }
+                id = lookup(id, name.toString());
+            }
+            return id != null ? id : -1;
+        }
+
+        long find(Path file) {
+            Path parent = file.getParent();
+            Integer name = segmentIds.get(file.getFileName().toString());
+            int dir = parent != null ? findDir(parent) : -1;
+            return name != null && dir >= 0 ? key(dir, name) : -1;
+        }
+
+        private Integer lookup(int parent, String segment) {
+            Integer id = segmentIds.get(segment);
+            return id != null ? dirIds.get(key(parent, id)) : null;
+        }
+
+        boolean isUnder(int dir, Set<Integer> ancestors) {
+            for (int id = dir; id >= 0; id = dirParents[id]) {
+                if (ancestors.contains(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String path(int dir, int name) {
+            StringBuilder path = new StringBuilder();
+            appendDir(path, dir);
+            appendSegment(path, segments.get(name));
+            return path.toString();
+        }
+
+        private void appendDir(StringBuilder path, int dir) {
+            if (dir < 0) {
+                return;
+            }
+            appendDir(path, dirParents[dir]);
+            appendSegment(path, segments.get(dirSegments[dir]));
+        }
+
+        private static void appendSegment(StringBuilder path, String segment) {
+            if (path.length() > 0 && path.charAt(path.length() - 1) != File.separatorChar) {
+                path.append(File.separatorChar);
+            }
+            path.append(segment);
+        }
+    }
+
+    private static final Comparator<FileInfo> NEWEST_FIRST =
+        Comparator.comparing(FileInfo::getModifiedTime).reversed();
+
+    // Drops files outside the time window, and with a limit keeps each worker thread's newest files
+    // in its own bounded min-heap, so memory stays O(N) per worker and no full sort is needed.
+    // Files that make it into a heap are passed downstream for live display.
+    private static class RecentFilter implements Consumer<FileInfo> {
+        private final int limit;
+        private final long cutoffMillis;
+        private final Consumer<FileInfo> downstream;
+        private final ConcurrentHashMap<Thread, PriorityQueue<FileInfo>> heaps = new ConcurrentHashMap<>();
+        private final LongAdder examined = new LongAdder();
+
+        RecentFilter(int limit, long cutoffMillis, Consumer<FileInfo> downstream) {
+            this.limit = limit;
+            this.cutoffMillis = cutoffMillis;
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void accept(FileInfo file) {
+            examined.increment();
+            if (file.getModifiedTime().toMillis() < cutoffMillis) {
+                return;
+            }
+            if (limit <= 0) {
+                downstream.accept(file);
+                return;
+            }
+            // Only the owning thread touches its heap; the root is the oldest file kept
+            PriorityQueue<FileInfo> heap = heaps.computeIfAbsent(Thread.currentThread(),
+                t -> new PriorityQueue<>(limit + 1, NEWEST_FIRST.reversed()));
+            if (heap.size() < limit) {
+                heap.add(file);
+            } else if (NEWEST_FIRST.compare(file, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(file);
+            } else {
+                return;
+            }
+            downstream.accept(file);
+        }
+
+        boolean inWindow(FileInfo file) {
+            return file.getModifiedTime().toMillis() >= cutoffMillis;
+        }
+
+        long getExamined() {
+            return examined.sum();
+        }
+
+        // Merges the worker heaps once the scan has finished
+        List<FileInfo> newest() {
+            List<FileInfo> merged = new ArrayList<>();
+            for (PriorityQueue<FileInfo> heap : heaps.values()) {
+                merged.addAll(heap);
+            }
+            merged.sort(NEWEST_FIRST);
+            return merged.size() > limit ? merged.subList(0, limit) : merged;
+        }
+    }
+
+    // Watches directories on its own thread and reports coalesced changes. Paths touched by events
+    // are collected in a set for COALESCE_MS and re-stat'ed once, so a burst of writes to one file
+    // becomes a single update. New directories are scanned and watched; OVERFLOW asks for a rescan.
+    private static class DirectoryWatcher implements Runnable {
+        private static final long COALESCE_MS = 500;
+
+        static class Changes {
+            final List<FileInfo> updated = new ArrayList<>();
+            final Set<String> removed = new HashSet<>();
+            boolean overflow;
+        }
+
+        private final ScanRules rules;
+        private final Path root;
+        private final ForkJoinPool pool;
+        private final int maxWatches;
+        private final Consumer<Changes> listener;
+        private final WatchService service;
+        private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+        private final Set<Path> watched = ConcurrentHashMap.newKeySet();
+        private volatile boolean overLimit;
+        private volatile boolean running = true;
+        private Collection<String> initial;
+
+        DirectoryWatcher(ScanRules rules, ForkJoinPool pool, int maxWatches, Consumer<Changes> listener) throws IOException {
+            this.rules = rules;
+            this.root = rules.root;
+            this.pool = pool;
+            this.maxWatches = maxWatches;
+            this.listener = listener;
+            this.service = root.getFileSystem().newWatchService();
+        }
+
+        void start(Collection<String> directories) {
+            initial = new ArrayList<>(directories);
+            Thread thread = new Thread(this, "recent-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            running = false;
+            try {
+                service.close();
+            } catch (IOException ex) {
+                System.err.println("Error closing directory watcher: " + ex.getMessage());
+            }
+        }
+
+        boolean isOverLimit() {
+            return overLimit;
+        }
+
+        int getWatchCount() {
+            return watched.size();
+        }
+
+        // Shallow directories first, so a limited budget covers the most visible part of the tree
+        void watchAll(Collection<String> directories) {
+            List<Path> paths = new ArrayList<>();
+            for (String dir : directories) {
+                paths.add(Paths.get(dir));
+            }
+            paths.sort(Comparator.comparingInt(Path::getNameCount));
+            for (Path dir : paths) {
+                if (!running) {
+                    return;
+                }
+                watch(dir);
+            }
+        }
+
+        private void watch(Path dir) {
+            if (watched.contains(dir)) {
+                return;
+            }
+            if (watched.size() >= maxWatches) {
+                overLimit = true;
+                return;
+            }
+            try {
+                keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                watched.add(dir);
+            } catch (ClosedWatchServiceException ex) {
+                running = false;
+            } catch (IOException | SecurityException ex) {
+                // Usually the OS watch limit; the periodic rescan picks up what isn't watched
+                overLimit = true;
+                System.err.println("Error watching " + dir + ": " + ex.getMessage());
+            }
+        }
+
+        @Override
+        public void run() {
+            watchAll(initial);
+            initial = null;
+            Set<Path> pending = new HashSet<>();
+            boolean overflow = false;
+            long firstPending = 0;
+            try {
+                while (running) {
+                    WatchKey key = service.poll(COALESCE_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        Path dir = keys.get(key);
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                overflow = true;
+                            } else if (dir != null) {
+                                pending.add(dir.resolve((Path) event.context()));
+                                if (event.kind() != StandardWatchEventKinds.ENTRY_MODIFY && !dir.equals(root)) {
+                                    pending.add(dir); // its mtime moved
+                                }
+                            }
+                        }
+                        if (!key.reset() && dir != null) {
+                            keys.remove(key);
+                            watched.remove(dir);
+                        }
+                    }
+                    if (pending.isEmpty() && !overflow) {
+                        continue;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (firstPending == 0) {
+                        firstPending = now;
                     }
+                    if (now - firstPending >= COALESCE_MS) {
+                        listener.accept(resolve(pending, overflow));
+                        pending = new HashSet<>();
+                        overflow = false;
+                        firstPending = 0;
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                // Stopped
+            }
+        }
 
-                    statusLabel.setText("Scan complete. " + fileList.size() + " items found.");
-                    refreshButton.setEnabled(true);
-                });
-            } catch (Exception ex) {
-                SwingUtilities.invokeLater(() -> {
-                    statusLabel.setText("Error: " + ex.getMessage());
-                    refreshButton.setEnabled(true);
-                });
+        private Changes resolve(Set<Path> paths, boolean overflow) {
+            Changes changes = new Changes();
+            changes.overflow = overflow;
+            for (Path path : paths) {
+                BasicFileAttributes attrs;
+                try {
+                    if (rules.skip(path)) {
+                        continue;
+                    }
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (NoSuchFileException ex) {
+                    changes.removed.add(path.toString());
+                    continue;
+                } catch (IOException | SecurityException ex) {
+                    System.err.println("Error accessing " + path + ": " + ex.getMessage());
+                    continue;
+                }
+                if (rules.shown(path, attrs.isDirectory())) {
+                    changes.updated.add(new FileInfo(path.getFileName().toString(), path.toString(),
+                        attrs.isDirectory(), attrs.creationTime(), attrs.lastModifiedTime()));
+                }
+                if (attrs.isDirectory() && !watched.contains(path)) {
+                    // Created or moved in: pick up its contents and watch it from now on
+                    List<FileInfo> subtree = Collections.synchronizedList(new ArrayList<>());
+                    ScanContext context = new ScanContext(rules, subtree::add, new AtomicBoolean(),
+                        Collections.<String, DirRecord>emptyMap(), true);
+                    try {
+                        if (!rules.descend(path, attrs, rules.depthOf(path), context.visited)) {
+                            continue;
+                        }
+                        pool.invoke(ScanTask.forRoot(path, context));
+                    } catch (IOException ex) {
+                        System.err.println("Error scanning directory " + path + ": " + ex.getMessage());
+                        continue;
+                    }
+                    changes.updated.addAll(subtree);
+                    watchAll(context.current.keySet());
+                }
             }
-        });
+            return changes;
+        }
     }
 
-    private void scanDirectory(Path dir, List<FileInfo> fileList) {
-        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
-            for (Path path : stream) {
+    // What a scan skips. Exclude globs without a '/' match an entry's name (node_modules, *.tmp);
+    // others match its path relative to the scan root (Library/Caches/**). Include globs only limit
+    // which files are shown; folders are still walked unless excluded. Depth counts from the root,
+    // whose own entries are at depth 1.
+    private static class ScanRules {
+        static final String DEFAULT_EXCLUDES = ".git,.svn,.hg,node_modules,.m2,.gradle,.cache,__pycache__";
+
+        final Path root;
+        final String excludes;
+        final String includes;
+        final int maxDepth;
+        final boolean skipHidden;
+        final boolean sameFileSystem;
+        private final List<PathMatcher> excludeNames = new ArrayList<>();
+        private final List<PathMatcher> excludePaths = new ArrayList<>();
+        private final List<PathMatcher> includeNames = new ArrayList<>();
+        private final List<PathMatcher> includePaths = new ArrayList<>();
+        // The root's device id where the platform exposes one (unix:dev); otherwise its FileStore
+        private final Object rootDevice;
+        private final FileStore rootStore;
+
+        ScanRules(Path root, String excludes, String includes, int maxDepth, boolean skipHidden,
+                  boolean sameFileSystem) throws IOException {
+            this.root = root;
+            this.excludes = excludes.trim();
+            this.includes = includes.trim();
+            this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+            this.skipHidden = skipHidden;
+            this.sameFileSystem = sameFileSystem;
+            compile(root, this.excludes, excludeNames, excludePaths);
+            compile(root, this.includes, includeNames, includePaths);
+            boolean unix = root.getFileSystem().supportedFileAttributeViews().contains("unix");
+            rootDevice = sameFileSystem && unix ? Files.getAttribute(root, "unix:dev") : null;
+            rootStore = sameFileSystem && !unix ? Files.getFileStore(root) : null;
+        }
+
+        // -Drecent.exclude, -Drecent.include, -Drecent.maxDepth, -Drecent.skipHidden, -Drecent.sameFileSystem
+        static ScanRules fromProperties(Path root) throws IOException {
+            return new ScanRules(root,
+                System.getProperty("recent.exclude", DEFAULT_EXCLUDES),
+                System.getProperty("recent.include", ""),
+                Integer.getInteger("recent.maxDepth", 0),
+                Boolean.getBoolean("recent.skipHidden"),
+                Boolean.getBoolean("recent.sameFileSystem"));
+        }
+
+        private static void compile(Path root, String globs, List<PathMatcher> names, List<PathMatcher> paths) {
+            for (String glob : globs.split(",")) {
+                glob = glob.trim();
+                if (glob.isEmpty()) {
+                    continue;
+                }
+                PathMatcher matcher = root.getFileSystem().getPathMatcher("glob:" + glob);
+                (glob.indexOf('/') >= 0 ? paths : names).add(matcher);
+            }
+        }
+
+        // Identifies the settings an index was built with; a different set of rules means a fresh scan
+        String fingerprint() {
+            return excludes + "|" + includes + "|" + maxDepth + "|" + skipHidden + "|" + sameFileSystem;
+        }
+
+        int depthOf(Path path) {
+            return path.equals(root) ? 0 : root.relativize(path).getNameCount();
+        }
+
+        // Decided from the path alone, before the entry is stat'ed
+        boolean skip(Path path) throws IOException {
+            if (matches(path, excludeNames, excludePaths)) {
+                return true;
+            }
+            return skipHidden && Files.isHidden(path);
+        }
+
+        boolean shown(Path path, boolean directory) {
+            return directory || (includeNames.isEmpty() && includePaths.isEmpty())
+                || matches(path, includeNames, includePaths);
+        }
+
+        boolean descend(Path dir, BasicFileAttributes attrs, int dirDepth, Set<Object> visited) throws IOException {
+            if (dirDepth >= maxDepth) {
+                return false;
+            }
+            if (sameFileSystem && !onRootFileSystem(dir)) {
+                return false;
+            }
+            if (!visited.add(fileKey(dir, attrs))) {
+                System.err.println("Skipping " + dir + ": folder already scanned through another link");
+                return false;
+            }
+            return true;
+        }
+
+        // Comparing device ids costs one stat; getFileStore has to search the mount table on every call
+        private boolean onRootFileSystem(Path dir) throws IOException {
+            if (rootDevice != null) {
+                return rootDevice.equals(Files.getAttribute(dir, "unix:dev"));
+            }
+            return rootStore.equals(Files.getFileStore(dir));
+        }
+
+        // The file key identifies a folder however it was reached; where the platform has none, the real path does
+        static Object fileKey(Path dir, BasicFileAttributes attrs) throws IOException {
+            Object key = attrs.fileKey();
+            return key != null ? key : dir.toRealPath().toString();
+        }
+
+        private boolean matches(Path path, List<PathMatcher> names, List<PathMatcher> paths) {
+            Path name = path.getFileName();
+            for (PathMatcher matcher : names) {
+                if (name != null && matcher.matches(name)) {
+                    return true;
+                }
+            }
+            if (!paths.isEmpty() && path.startsWith(root)) {
+                Path relative = root.relativize(path);
+                for (PathMatcher matcher : paths) {
+                    if (matcher.matches(relative)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    // State shared by all tasks of one scan. Visited holds the file key of every directory entered,
+    // so a symlink back up the tree (or a second link to the same folder) is only walked once.
+    private static class ScanContext {
+        final ScanRules rules;
+        final Consumer<FileInfo> sink;
+        final AtomicBoolean cancelled;
+        final Map<String, DirRecord> previous;
+        // Null when the scan keeps no index (top-N mode)
+        final Map<String, DirRecord> current;
+        final LongAdder reused = new LongAdder();
+        final Set<Object> visited = ConcurrentHashMap.newKeySet();
+
+        ScanContext(ScanRules rules, Consumer<FileInfo> sink, AtomicBoolean cancelled, Map<String, DirRecord> previous,
+                    boolean recordIndex) {
+            this.rules = rules;
+            this.current = recordIndex ? new ConcurrentHashMap<>() : null;
+            this.sink = sink;
+            this.cancelled = cancelled;
+            this.previous = previous;
+        }
+    }
+
+    // Scans one directory and forks a task per subdirectory, so idle workers steal whole subtrees.
+    // The sink is called from many threads at once. Setting the cancelled flag makes pending tasks return at once.
+    // A directory whose mtime matches the previous scan isn't listed again; its saved entries are only re-stat'ed.
+    // Scan rules are checked before an entry is stat'ed and before a subdirectory is descended into.
+    private static class ScanTask extends RecursiveAction {
+        private final Path dir;
+        private final long dirModified;
+        private final int depth;
+        private final ScanContext context;
+
+        ScanTask(Path dir, long dirModified, int depth, ScanContext context) {
+            this.dir = dir;
+            this.dirModified = dirModified;
+            this.depth = depth;
+            this.context = context;
+        }
+
+        // Task for the top of a scan, which may be a folder below the rules' root
+        static ScanTask forRoot(Path dir, ScanContext context) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+            context.visited.add(ScanRules.fileKey(dir, attrs));
+            return new ScanTask(dir, attrs.lastModifiedTime().toMillis(), context.rules.depthOf(dir), context);
+        }
+
+        @Override
+        protected void compute() {
+            if (context.cancelled.get()) {
+                return;
+            }
+            List<ScanTask> subdirectories = new ArrayList<>();
+            DirRecord previous = context.previous.get(dir.toString());
+            DirRecord record;
+            if (previous != null && previous.dirModified == dirModified) {
+                context.reused.increment();
+                record = reuse(previous, subdirectories);
+            } else {
+                record = list(subdirectories);
+            }
+            if (record != null && context.current != null) {
+                context.current.put(dir.toString(), record);
+            }
+            invokeAll(subdirectories);
+        }
+
+        private DirRecord list(List<ScanTask> subdirectories) {
+            DirRecord record = new DirRecord(dirModified);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path path : stream) {
+                    if (context.cancelled.get()) {
+                        return null;
+                    }
+                    try {
+                        if (context.rules.skip(path)) {
+                            continue;
+                        }
+                        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                        FileInfo file = new FileInfo(
+                            path.getFileName().toString(),
+                            path.toString(),
+                            attrs.isDirectory(),
+                            attrs.creationTime(),
+                            attrs.lastModifiedTime()
+                        );
+                        if (context.rules.shown(path, attrs.isDirectory())) {
+                            context.sink.accept(file);
+                        }
+                        if (context.current != null) {
+                            record.add(file);
+                        }
+
+                        // Recursively scan subdirectories
+                        if (attrs.isDirectory() && context.rules.descend(path, attrs, depth + 1, context.visited)) {
+                            subdirectories.add(new ScanTask(path, attrs.lastModifiedTime().toMillis(), depth + 1, context));
+                        }
+                    } catch (IOException | SecurityException ex) {
+                        // Skip files/folders we can't access
+                        System.err.println("Error accessing " + path + ": " + ex.getMessage());
+                    }
+                }
+            } catch (IOException | SecurityException ex) {
+                System.err.println("Error scanning directory " + dir + ": " + ex.getMessage());
+                return null;
+            }
+            return record;
+        }
+
+        // Skips the readdir but still stats every saved name: editing a file in place changes its own
+        // mtime, not its directory's. The returned record carries the fresh times.
+        private DirRecord reuse(DirRecord previous, List<ScanTask> subdirectories) {
+            DirRecord record = new DirRecord(dirModified, Math.max(8, previous.size));
+            for (int i = 0; i < previous.size; i++) {
+                if (context.cancelled.get()) {
+                    return null;
+                }
+                // The index only holds entries that passed the same rules, so skip() needn't run again
+                Path path = dir.resolve(previous.names[i]);
                 try {
                     BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-                    fileList.add(new FileInfo(
-                        path.getFileName().toString(),
-                        path.toString(),
-                        attrs.isDirectory(),
-                        attrs.creationTime(),
-                        attrs.lastModifiedTime()
-                    ));
-
-                    // Recursively scan subdirectories
-                    if (attrs.isDirectory()) {
-                        scanDirectory(path, fileList);
+                    FileInfo file = new FileInfo(previous.names[i], path.toString(), attrs.isDirectory(),
+                        attrs.creationTime(), attrs.lastModifiedTime());
+                    if (context.rules.shown(path, attrs.isDirectory())) {
+                        context.sink.accept(file);
+                    }
+                    if (context.current != null) {
+                        record.add(file);
+                    }
+                    // A subdirectory's own mtime decides whether its listing can be reused too
+                    if (attrs.isDirectory() && context.rules.descend(path, attrs, depth + 1, context.visited)) {
+                        subdirectories.add(new ScanTask(path, attrs.lastModifiedTime().toMillis(), depth + 1, context));
                     }
                 } catch (IOException | SecurityException ex) {
-                    // Skip files/folders we can't access
                     System.err.println("Error accessing " + path + ": " + ex.getMessage());
                 }
             }
-        } catch (IOException | SecurityException ex) {
-            System.err.println("Error scanning directory " + dir + ": " + ex.getMessage());
+            return record;
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    // One directory's entries as of the last scan, stored as parallel arrays
+    private static class DirRecord {
+        final long dirModified;
+        int size;
+        String[] names;
+        boolean[] directories;
+        long[] createdTimes;
+        long[] modifiedTimes;
+
+        DirRecord(long dirModified) {
+            this(dirModified, 8);
+        }
+
+        DirRecord(long dirModified, int capacity) {
+            this.dirModified = dirModified;
+            names = new String[capacity];
+            directories = new boolean[capacity];
+            createdTimes = new long[capacity];
+            modifiedTimes = new long[capacity];
+        }
+
+        void add(FileInfo file) {
+            add(file.getName(), file.isDirectory(), millis(file.getCreatedTime()), millis(file.getModifiedTime()));
+        }
+
+        void add(String name, boolean directory, long created, long modified) {
+            if (size == names.length) {
+                int capacity = Math.max(8, size * 2);
+                names = Arrays.copyOf(names, capacity);
+                directories = Arrays.copyOf(directories, capacity);
+                createdTimes = Arrays.copyOf(createdTimes, capacity);
+                modifiedTimes = Arrays.copyOf(modifiedTimes, capacity);
+            }
+            names[size] = name;
+            directories[size] = directory;
+            createdTimes[size] = created;
+            modifiedTimes[size] = modified;
+            size++;
+        }
+    }
+
+    // On-disk form of the scan: directories sorted by path, each path stored as the length it shares
+    // with the previous one plus the remaining suffix, followed by its entries by name only
+    private static class ScanIndex {
+        private static final int MAGIC = 0x52434958; // "RCIX"
+        private static final int VERSION = 2;
+
+        static Map<String, DirRecord> load(Path file, ScanRules rules) {
+            Path root = rules.root;
+            if (!Files.isRegularFile(file)) {
+                return Collections.emptyMap();
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.toString())
+                        || !in.readUTF().equals(rules.fingerprint())) {
+                    return Collections.emptyMap();
+                }
+                int count = readVarInt(in);
+                Map<String, DirRecord> index = new HashMap<>(count * 2);
+                String previous = "";
+                for (int d = 0; d < count; d++) {
+                    int shared = readVarInt(in);
+                    String path = previous.substring(0, shared) + in.readUTF();
+                    DirRecord record = new DirRecord(in.readLong(), 0);
+                    int entries = readVarInt(in);
+                    for (int i = 0; i < entries; i++) {
+                        String name = in.readUTF();
+                        boolean directory = in.readBoolean();
+                        record.add(name, directory, in.readLong(), in.readLong());
+                    }
+                    index.put(path, record);
+                    previous = path;
+                }
+                return index;
+            } catch (IOException | RuntimeException ex) {
+                // A damaged index only costs a full scan
+                System.err.println("Error reading scan index " + file + ": " + ex.getMessage());
+                return Collections.emptyMap();
+            }
         }
+
+        static void save(Path file, ScanRules rules, Map<String, DirRecord> index) throws IOException {
+            List<String> paths = new ArrayList<>(index.keySet());
+            Collections.sort(paths);
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(rules.root.toString());
+                out.writeUTF(rules.fingerprint());
+                writeVarInt(out, paths.size());
+                String previous = "";
+                for (String path : paths) {
+                    int shared = 0;
+                    int max = Math.min(previous.length(), path.length());
+                    while (shared < max && previous.charAt(shared) == path.charAt(shared)) {
+                        shared++;
+                    }
+                    writeVarInt(out, shared);
+                    out.writeUTF(path.substring(shared));
+                    DirRecord record = index.get(path);
+                    out.writeLong(record.dirModified);
+                    writeVarInt(out, record.size);
+                    for (int i = 0; i < record.size; i++) {
+                        out.writeUTF(record.names[i]);
+                        out.writeBoolean(record.directories[i]);
+                        out.writeLong(record.createdTimes[i]);
+                        out.writeLong(record.modifiedTimes[i]);
+                    }
+                    previous = path;
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed length in scan index");
+        }
+    }
+
+    // DateTimeFormatter is immutable, so cells can be formatted from any thread
+    private static final DateTimeFormatter DATE_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
+    private static String formatTime(long millis) {
+        return millis != UNKNOWN_TIME ? DATE_FORMAT.format(Instant.ofEpochMilli(millis)) : "Unknown";
     }
 
-    private String formatTime(FileTime fileTime) {
-        return fileTime != null ? dateFormat.format(fileTime.toMillis()) : "Unknown";
+    private static long millis(FileTime fileTime) {
+        return fileTime != null ? fileTime.toMillis() : UNKNOWN_TIME;
     }
 
     // Helper class to store file information